@@ -0,0 +1,452 @@
+package code;
+
+import code.ClosureCompiler.ExprNode;
+import code.ClosureCompiler.UnexpectedValue;
+
+// Arithmetic, comparison and equality nodes for the ClosureCompiler that
+// specialize themselves on the operand types they actually see. A node
+// starts UNINITIALIZED and its first evaluation rewrites it to INT when both
+// operands are INT, FLOAT when both are FLOAT, or MIXED for a FLOAT/INT mix.
+// INT and FLOAT nodes evaluate their operands through evalInt/evalFloat, so
+// nothing is boxed between typed variables and nested operators. If the
+// operand types ever change the node rewrites itself to GENERIC for good,
+// which is the Values path the Interpreter runs.
+abstract class BinaryNode implements ExprNode {
+    static final byte UNINITIALIZED = 0;
+    static final byte INT = 1;
+    static final byte FLOAT = 2;
+    static final byte MIXED = 3;
+    static final byte GENERIC = 4;
+
+    final Token operator;
+    final ExprNode left;
+    final ExprNode right;
+    byte state = UNINITIALIZED;
+
+    BinaryNode(Token operator, ExprNode left, ExprNode right) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    static ExprNode create(Token operator, ExprNode left, ExprNode right) {
+        switch (operator.type) {
+            case PLUS: return new Add(operator, left, right);
+            case MINUS: return new Subtract(operator, left, right);
+            case STAR: return new Multiply(operator, left, right);
+            case SLASH: return new Divide(operator, left, right);
+            case MODULO: return new Modulo(operator, left, right);
+            case GREATER: return new Greater(operator, left, right);
+            case GREATER_EQUAL: return new GreaterEqual(operator, left, right);
+            case LESS: return new Less(operator, left, right);
+            case LESS_EQUAL: return new LessEqual(operator, left, right);
+            case EQUAL_EQUAL: return new Equal(operator, left, right);
+            case NOT_EQUAL: return new NotEqual(operator, left, right);
+            default: return null;
+        }
+    }
+
+    // The Values operation, used before the node has specialized and after
+    // it has given up.
+    abstract Object generic(Object l, Object r);
+
+    boolean allowsMixed() {
+        return true;
+    }
+
+    // Called whenever the operands do not fit the current state. Picks the
+    // next state and computes this evaluation generically.
+    final Object respecialize(Object l, Object r) {
+        if (state != UNINITIALIZED) {
+            state = GENERIC;
+        } else if (l instanceof Integer && r instanceof Integer) {
+            state = INT;
+        } else if (l instanceof Double && r instanceof Double) {
+            state = FLOAT;
+        } else if (isMixed(l, r) && allowsMixed()) {
+            state = MIXED;
+        } else {
+            state = GENERIC;
+        }
+        return generic(l, r);
+    }
+
+    static boolean isMixed(Object l, Object r) {
+        return (l instanceof Integer && r instanceof Double)
+                || (l instanceof Double && r instanceof Integer);
+    }
+
+    static double d(Object value) {
+        return ((Number) value).doubleValue();
+    }
+
+    static int asInt(Object value) throws UnexpectedValue {
+        if (value instanceof Integer) return (Integer) value;
+        throw new UnexpectedValue(value);
+    }
+
+    static double asFloat(Object value) throws UnexpectedValue {
+        if (value instanceof Double) return (Double) value;
+        throw new UnexpectedValue(value);
+    }
+
+    // +, -, *, / and %: INT operands give an INT, anything else a FLOAT.
+    abstract static class Arithmetic extends BinaryNode {
+        Arithmetic(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        abstract int intOp(int l, int r);
+
+        abstract double floatOp(double l, double r);
+
+        @Override
+        public Object eval(Environment environment) {
+            try {
+                switch (state) {
+                    case INT:
+                        return evalInt(environment);
+                    case FLOAT:
+                        return evalFloat(environment);
+                    default:
+                        break;
+                }
+            } catch (UnexpectedValue e) {
+                return e.value;
+            }
+
+            Object l = left.eval(environment);
+            Object r = right.eval(environment);
+            if (state == MIXED && isMixed(l, r)) return floatOp(d(l), d(r));
+            return respecialize(l, r);
+        }
+
+        @Override
+        public int evalInt(Environment environment) throws UnexpectedValue {
+            if (state != INT) return asInt(eval(environment));
+
+            int l;
+            try {
+                l = left.evalInt(environment);
+            } catch (UnexpectedValue e) {
+                return asInt(respecialize(e.value, right.eval(environment)));
+            }
+            try {
+                return intOp(l, right.evalInt(environment));
+            } catch (UnexpectedValue e) {
+                return asInt(respecialize(l, e.value));
+            }
+        }
+
+        @Override
+        public double evalFloat(Environment environment) throws UnexpectedValue {
+            if (state != FLOAT) return asFloat(eval(environment));
+
+            double l;
+            try {
+                l = left.evalFloat(environment);
+            } catch (UnexpectedValue e) {
+                return asFloat(respecialize(e.value, right.eval(environment)));
+            }
+            try {
+                return floatOp(l, right.evalFloat(environment));
+            } catch (UnexpectedValue e) {
+                return asFloat(respecialize(l, e.value));
+            }
+        }
+    }
+
+    // >, >=, <, <=, == and <>: always a BOOL.
+    abstract static class Comparison extends BinaryNode {
+        Comparison(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        abstract boolean intTest(int l, int r);
+
+        abstract boolean floatTest(double l, double r);
+
+        @Override
+        public Object eval(Environment environment) {
+            if (state == INT) {
+                int l;
+                try {
+                    l = left.evalInt(environment);
+                } catch (UnexpectedValue e) {
+                    return respecialize(e.value, right.eval(environment));
+                }
+                try {
+                    return intTest(l, right.evalInt(environment));
+                } catch (UnexpectedValue e) {
+                    return respecialize(l, e.value);
+                }
+            }
+
+            if (state == FLOAT) {
+                double l;
+                try {
+                    l = left.evalFloat(environment);
+                } catch (UnexpectedValue e) {
+                    return respecialize(e.value, right.eval(environment));
+                }
+                try {
+                    return floatTest(l, right.evalFloat(environment));
+                } catch (UnexpectedValue e) {
+                    return respecialize(l, e.value);
+                }
+            }
+
+            Object l = left.eval(environment);
+            Object r = right.eval(environment);
+            if (state == MIXED && isMixed(l, r)) return floatTest(d(l), d(r));
+            return respecialize(l, r);
+        }
+    }
+
+    static final class Add extends Arithmetic {
+        Add(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        int intOp(int l, int r) {
+            return l + r;
+        }
+
+        @Override
+        double floatOp(double l, double r) {
+            return l + r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.add(operator, l, r);
+        }
+    }
+
+    static final class Subtract extends Arithmetic {
+        Subtract(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        int intOp(int l, int r) {
+            return l - r;
+        }
+
+        @Override
+        double floatOp(double l, double r) {
+            return l - r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.subtract(operator, l, r);
+        }
+    }
+
+    static final class Multiply extends Arithmetic {
+        Multiply(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        int intOp(int l, int r) {
+            return l * r;
+        }
+
+        @Override
+        double floatOp(double l, double r) {
+            return l * r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.multiply(operator, l, r);
+        }
+    }
+
+    static final class Divide extends Arithmetic {
+        Divide(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        int intOp(int l, int r) {
+            if (r == 0) throw new RuntimeError(operator, "Division by zero.");
+            return l / r;
+        }
+
+        @Override
+        double floatOp(double l, double r) {
+            if (r == 0) throw new RuntimeError(operator, "Division by zero.");
+            return l / r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.divide(operator, l, r);
+        }
+    }
+
+    static final class Modulo extends Arithmetic {
+        Modulo(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        int intOp(int l, int r) {
+            if (r == 0) throw new RuntimeError(operator, "Division by zero.");
+            return l % r;
+        }
+
+        @Override
+        double floatOp(double l, double r) {
+            if (r == 0) throw new RuntimeError(operator, "Division by zero.");
+            return l % r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.modulo(operator, l, r);
+        }
+    }
+
+    static final class Greater extends Comparison {
+        Greater(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean intTest(int l, int r) {
+            return l > r;
+        }
+
+        @Override
+        boolean floatTest(double l, double r) {
+            return l > r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.greater(operator, l, r);
+        }
+    }
+
+    static final class GreaterEqual extends Comparison {
+        GreaterEqual(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean intTest(int l, int r) {
+            return l >= r;
+        }
+
+        @Override
+        boolean floatTest(double l, double r) {
+            return l >= r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.greaterEqual(operator, l, r);
+        }
+    }
+
+    static final class Less extends Comparison {
+        Less(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean intTest(int l, int r) {
+            return l < r;
+        }
+
+        @Override
+        boolean floatTest(double l, double r) {
+            return l < r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.less(operator, l, r);
+        }
+    }
+
+    static final class LessEqual extends Comparison {
+        LessEqual(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean intTest(int l, int r) {
+            return l <= r;
+        }
+
+        @Override
+        boolean floatTest(double l, double r) {
+            return l <= r;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.lessEqual(operator, l, r);
+        }
+    }
+
+    // isEqual compares FLOATs with Double.equals and never treats an INT
+    // and a FLOAT as equal, so equality has no MIXED state.
+    static final class Equal extends Comparison {
+        Equal(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean allowsMixed() {
+            return false;
+        }
+
+        @Override
+        boolean intTest(int l, int r) {
+            return l == r;
+        }
+
+        @Override
+        boolean floatTest(double l, double r) {
+            return Double.compare(l, r) == 0;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Values.isEqual(l, r);
+        }
+    }
+
+    static final class NotEqual extends Comparison {
+        NotEqual(Token operator, ExprNode left, ExprNode right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean allowsMixed() {
+            return false;
+        }
+
+        @Override
+        boolean intTest(int l, int r) {
+            return l != r;
+        }
+
+        @Override
+        boolean floatTest(double l, double r) {
+            return Double.compare(l, r) != 0;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return !Values.isEqual(l, r);
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Lowers a resolved program into a Chunk for the VM. All block frames are
+// flattened into one locals array: a block's slots start where the
+// enclosing blocks' slots end, so a depth and Local.slot from the Resolver
+// become a single absolute local index. Locals stay boxed here, the VM
+// checks stores against the declared type operand instead.
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Chunk chunk = new Chunk();
+    private final List<Integer> frameBases = new ArrayList<>();
+    private int localTop = 0;
+    private final Diagnostics diagnostics;
+
+    BytecodeCompiler(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    Chunk compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OpCode.RETURN, null);
+        chunk.finish();
+        return chunk;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void emit(int b, Token token) {
+        chunk.write(b, token);
+    }
+
+    private void emitShort(int value, Token token) {
+        if (value > 0xffff) {
+            String message = "Too many variables or constants in one program.";
+            if (token != null) {
+                diagnostics.error(token, message);
+            } else {
+                diagnostics.error(line(), message);
+            }
+        }
+        emit((value >> 8) & 0xff, token);
+        emit(value & 0xff, token);
+    }
+
+    // Literals carry no token, so their errors go to the line of the
+    // nearest byte before them that has one.
+    private int line() {
+        for (int i = chunk.count - 1; i >= 0; i--) {
+            if (chunk.tokens[i] != null) return chunk.tokens[i].line;
+        }
+        return 0;
+    }
+
+    private void emitInt(int value, Token token) {
+        emit((value >> 24) & 0xff, token);
+        emit((value >> 16) & 0xff, token);
+        emit((value >> 8) & 0xff, token);
+        emit(value & 0xff, token);
+    }
+
+    private void emitConstant(Object value, Token token) {
+        emit(OpCode.CONSTANT, token);
+        emitShort(chunk.addConstant(value), token);
+    }
+
+    private int emitJump(byte instruction, Token token) {
+        emit(instruction, token);
+        emitInt(0, token);
+        return chunk.count - 4;
+    }
+
+    private void patchJump(int offset) {
+        // -4 to adjust for the jump offset itself
+        int jump = chunk.count - offset - 4;
+        chunk.code[offset] = (byte) ((jump >> 24) & 0xff);
+        chunk.code[offset + 1] = (byte) ((jump >> 16) & 0xff);
+        chunk.code[offset + 2] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 3] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart, Token token) {
+        emit(OpCode.LOOP, token);
+        emitInt(chunk.count - loopStart + 4, token);
+    }
+
+    private int localIndex(int depth, Local local) {
+        return frameBases.get(frameBases.size() - 1 - depth) + local.slot;
+    }
+
+    private static byte typeTag(String dataType) {
+        switch (dataType) {
+            case "INT":
+                return OpCode.TYPE_INT;
+            case "CHAR":
+                return OpCode.TYPE_CHAR;
+            case "BOOL":
+                return OpCode.TYPE_BOOL;
+            case "FLOAT":
+                return OpCode.TYPE_FLOAT;
+            default:
+                return OpCode.TYPE_STRING;
+        }
+    }
+
+    private void declaration(Token name, Expr initializer, Local local, boolean redeclaration, String dataType) {
+        byte type = typeTag(dataType);
+
+        if (initializer != null) {
+            compile(initializer);
+            emit(OpCode.CHECK_TYPE, name);
+            emit(type, name);
+        } else {
+            emit(OpCode.NIL, name);
+        }
+
+        if (local == null) {
+            emit(OpCode.DEFINE_GLOBAL, name);
+            emitShort(chunk.addConstant(name.lexeme), name);
+            emit(type, name);
+            return;
+        }
+
+        if (redeclaration) {
+            emit(OpCode.REDEFINE, name);
+            return;
+        }
+        emit(OpCode.DEFINE_LOCAL, name);
+        emitShort(localIndex(0, local), name);
+    }
+
+    private void assignment(Token name, int depth, Local local) {
+        if (depth < 0) {
+            emit(OpCode.SET_GLOBAL, name);
+            emitShort(chunk.addConstant(name.lexeme), name);
+            return;
+        }
+
+        emit(OpCode.SET_LOCAL, name);
+        emitShort(localIndex(depth, local), name);
+        emit(typeTag(local.dataType), name);
+    }
+
+    private static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        return expr;
+    }
+
+    private static boolean isLocal(Expr expr) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).depth >= 0;
+    }
+
+    // "x = x + c" or "x = x - c" on a local, with c an INT literal, as an
+    // INC_LOCAL. The operator token goes on the constant operand so errors
+    // from the addition still point at it.
+    private boolean compileIncrement(Expr expr) {
+        if (!(expr instanceof Expr.Assign)) return false;
+        Expr.Assign assign = (Expr.Assign) expr;
+        if (assign.depth < 0) return false;
+
+        Expr value = unwrap(assign.value);
+        if (!(value instanceof Expr.Binary)) return false;
+        Expr.Binary binary = (Expr.Binary) value;
+        TokenType operator = binary.operator.type;
+        if (operator != TokenType.PLUS && operator != TokenType.MINUS) return false;
+
+        Expr left = unwrap(binary.left);
+        Expr right = unwrap(binary.right);
+        if (!isLocal(left) || ((Expr.Variable) left).local != assign.local) return false;
+        if (!(right instanceof Expr.Literal) || !(((Expr.Literal) right).value instanceof Integer)) {
+            return false;
+        }
+
+        emit(OpCode.INC_LOCAL, assign.name);
+        emitShort(localIndex(assign.depth, assign.local), assign.name);
+        emitShort(chunk.addConstant(((Expr.Literal) right).value), binary.operator);
+        emit(typeTag(assign.local.dataType), assign.name);
+        return true;
+    }
+
+    // Compiles a condition followed by a jump taken when it is false, and
+    // returns the offset to patch. A local compared with a literal becomes
+    // a single COMPARE_LOCAL_JUMP.
+    private int compileConditionJump(Expr condition) {
+        Expr expr = unwrap(condition);
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            byte comparison = comparisonOpCode(binary.operator.type);
+            Expr left = unwrap(binary.left);
+            Expr right = unwrap(binary.right);
+
+            if (comparison >= 0 && isLocal(left) && right instanceof Expr.Literal
+                    && ((Expr.Literal) right).value != null) {
+                Expr.Variable variable = (Expr.Variable) left;
+                emit(OpCode.COMPARE_LOCAL_JUMP, binary.operator);
+                emitShort(localIndex(variable.depth, variable.local), binary.operator);
+                emitShort(chunk.addConstant(((Expr.Literal) right).value), binary.operator);
+                emit(comparison, binary.operator);
+                emitInt(0, binary.operator);
+                return chunk.count - 4;
+            }
+        }
+
+        compile(condition);
+        return emitJump(OpCode.JUMP_IF_FALSE, null);
+    }
+
+    private static byte comparisonOpCode(TokenType type) {
+        switch (type) {
+            case GREATER: return OpCode.GREATER;
+            case GREATER_EQUAL: return OpCode.GREATER_EQUAL;
+            case LESS: return OpCode.LESS;
+            case LESS_EQUAL: return OpCode.LESS_EQUAL;
+            case EQUAL_EQUAL: return OpCode.EQUAL;
+            case NOT_EQUAL: return OpCode.NOT_EQUAL;
+            default: return -1;
+        }
+    }
+
+    // Pushes the operands of a & / $ chain and emits the instruction that
+    // joins them, followed by its count and separator operands. Returns
+    // false for a chain too long for the u8 count.
+    private boolean compileConcatenation(Concatenation concatenation, byte instruction) {
+        int count = concatenation.operands.size();
+        if (count > 0xff) return false;
+
+        for (Expr operand : concatenation.operands) {
+            compile(operand);
+        }
+        emit(instruction, null);
+        emit(count, null);
+        for (boolean newline : concatenation.newlines) {
+            emit(newline ? OpCode.NEXT_LINE : OpCode.CONCAT, null);
+        }
+        return true;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // the Resolver gave a block that declares nothing no frame
+        if (stmt.slotCount == 0) {
+            for (Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            return null;
+        }
+
+        int base = localTop;
+        frameBases.add(base);
+        localTop += stmt.slotCount;
+        chunk.localCount = Math.max(chunk.localCount, localTop);
+
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+
+        localTop = base;
+        frameBases.remove(frameBases.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (compileIncrement(stmt.expression)) return null;
+
+        compile(stmt.expression);
+        emit(OpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = compileConditionJump(stmt.condition);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+
+        int elseJump = emitJump(OpCode.JUMP, null);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitDisplayStmt(Stmt.Display stmt) {
+        Concatenation concatenation = Concatenation.of(stmt.expression);
+        if (concatenation != null && compileConcatenation(concatenation, OpCode.CONCAT_DISPLAY)) {
+            return null;
+        }
+
+        compile(stmt.expression);
+        emit(OpCode.DISPLAY, null);
+        return null;
+    }
+
+    @Override
+    public Void visitScanStmt(Stmt.Scan stmt) {
+        Token first = stmt.variables.get(0);
+        emit(OpCode.SCAN, first);
+        emitShort(chunk.addConstant(stmt.variables), first);
+
+        for (int i = 0; i < stmt.variables.size(); i++) {
+            Token variable = stmt.variables.get(i);
+            if (stmt.depths[i] < 0) {
+                emit(OpCode.SCAN_GLOBAL, variable);
+                emitShort(chunk.addConstant(variable.lexeme), variable);
+                emit(0, variable);
+            } else {
+                Local local = stmt.locals[i];
+                emit(OpCode.SCAN_LOCAL, variable);
+                emitShort(localIndex(stmt.depths[i], local), variable);
+                emit(typeTag(local.dataType), variable);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIntStmt(Stmt.Int stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, "INT");
+        return null;
+    }
+
+    @Override
+    public Void visitCharStmt(Stmt.Char stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, "CHAR");
+        return null;
+    }
+
+    @Override
+    public Void visitFloatStmt(Stmt.Float stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, "FLOAT");
+        return null;
+    }
+
+    @Override
+    public Void visitBoolStmt(Stmt.Bool stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, "BOOL");
+        return null;
+    }
+
+    @Override
+    public Void visitStringStmt(Stmt.String stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, "STRING");
+        return null;
+    }
+
+    @Override
+    public Void visitMultiVarStmt(Stmt.MultiVar stmt) {
+        for (int i = 0; i < stmt.names.size(); i++) {
+            Token name = stmt.names.get(i);
+            Expr initializer = stmt.initializers.get(i);
+
+            if (initializer != null) {
+                compile(initializer);
+            } else {
+                emit(OpCode.NIL, name);
+            }
+            assignment(name, stmt.depths[i], stmt.locals[i]);
+            emit(OpCode.POP, name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count;
+        int exitJump = compileConditionJump(stmt.condition);
+        compile(stmt.body);
+        emitLoop(loopStart, null);
+
+        patchJump(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        assignment(expr.name, expr.depth, expr.local);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        Concatenation concatenation = Concatenation.of(expr);
+        if (concatenation != null && concatenation.operands.size() > 2
+                && compileConcatenation(concatenation, OpCode.CONCAT_N)) {
+            return null;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case PLUS: emit(OpCode.ADD, operator); break;
+            case MINUS: emit(OpCode.SUBTRACT, operator); break;
+            case STAR: emit(OpCode.MULTIPLY, operator); break;
+            case SLASH: emit(OpCode.DIVIDE, operator); break;
+            case MODULO: emit(OpCode.MODULO, operator); break;
+            case GREATER: emit(OpCode.GREATER, operator); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, operator); break;
+            case LESS: emit(OpCode.LESS, operator); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, operator); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL, operator); break;
+            case NOT_EQUAL: emit(OpCode.NOT_EQUAL, operator); break;
+            case CONCAT: emit(OpCode.CONCAT, operator); break;
+            case NEXT_LINE: emit(OpCode.NEXT_LINE, operator); break;
+            default:
+                // Values.binary has no case for it either
+                emit(OpCode.POP, operator);
+                emit(OpCode.POP, operator);
+                emit(OpCode.NIL, operator);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, null);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE, null);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE, null);
+        } else {
+            emitConstant(expr.value, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        byte shortCircuit = expr.operator.type == TokenType.OR
+                ? OpCode.JUMP_IF_TRUE_OR_POP
+                : OpCode.JUMP_IF_FALSE_OR_POP;
+        int endJump = emitJump(shortCircuit, expr.operator);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case NOT: emit(OpCode.NOT, expr.operator); break;
+            case MINUS: emit(OpCode.NEGATE, expr.operator); break;
+            default: emit(OpCode.UNARY, expr.operator); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0) {
+            emit(OpCode.GET_GLOBAL, expr.name);
+            emitShort(chunk.addConstant(expr.name.lexeme), expr.name);
+        } else {
+            emit(OpCode.GET_LOCAL, expr.name);
+            emitShort(localIndex(expr.depth, expr.local), expr.name);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled program: the bytecode, the token each byte came from (for
+// runtime error lines) and the constant pool.
+class Chunk {
+    byte[] code = new byte[256];
+    Token[] tokens = new Token[256];
+    int count = 0;
+    Object[] constants;
+    int localCount = 0;
+
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    void write(int b, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = (byte) b;
+        tokens[count] = token;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constantList.size();
+            constantList.add(value);
+            constantIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    void finish() {
+        constants = constantList.toArray();
+    }
+}
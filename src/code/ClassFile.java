@@ -0,0 +1,413 @@
+package code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the JVM class file format for the JvmCompiler: a constant
+// pool, static methods and a code buffer with labels. Classes are written as
+// version 49 so the JVM verifies them by type inference and no
+// StackMapTable has to be computed.
+final class ClassFile {
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int ICONST_1 = 4;
+    static final int DCONST_0 = 14;
+    static final int DCONST_1 = 15;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC_W = 19;
+    static final int LDC2_W = 20;
+    static final int ILOAD = 21;
+    static final int DLOAD = 24;
+    static final int ALOAD = 25;
+    static final int AALOAD = 50;
+    static final int ISTORE = 54;
+    static final int DSTORE = 57;
+    static final int ASTORE = 58;
+    static final int POP = 87;
+    static final int POP2 = 88;
+    static final int DUP = 89;
+    static final int DUP2 = 92;
+    static final int SWAP = 95;
+    static final int IADD = 96;
+    static final int DADD = 99;
+    static final int ISUB = 100;
+    static final int DSUB = 103;
+    static final int IMUL = 104;
+    static final int DMUL = 107;
+    static final int IDIV = 108;
+    static final int DDIV = 111;
+    static final int IREM = 112;
+    static final int DREM = 115;
+    static final int INEG = 116;
+    static final int DNEG = 119;
+    static final int IXOR = 130;
+    static final int I2D = 135;
+    static final int DCMPL = 151;
+    static final int DCMPG = 152;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int IF_ICMPEQ = 159;
+    static final int IF_ICMPNE = 160;
+    static final int IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162;
+    static final int IF_ICMPGT = 163;
+    static final int IF_ICMPLE = 164;
+    static final int GOTO = 167;
+    static final int RETURN = 177;
+    static final int GETSTATIC = 178;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int NEW = 187;
+    static final int ATHROW = 191;
+    static final int CHECKCAST = 192;
+    static final int WIDE = 196;
+
+    // Thrown when the program does not fit the limits of a single method.
+    // Only caught to fall back to another engine, so it has no stack trace.
+    static final class TooLarge extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+    private final int thisClass;
+    private final int superClass;
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFile(String name) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+    }
+
+    Code method(String name, String descriptor) {
+        Code code = new Code(utf8(name), utf8(descriptor));
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int codeName = utf8("Code");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            // ACC_FINAL | ACC_SUPER
+            out.writeShort(0x0030);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+
+            out.writeShort(methods.size());
+            for (Code code : methods) {
+                code.resolveJumps();
+                // ACC_STATIC
+                out.writeShort(0x0008);
+                out.writeShort(code.name);
+                out.writeShort(code.descriptor);
+                out.writeShort(1);
+                out.writeShort(codeName);
+                out.writeInt(12 + code.length);
+                out.writeShort(code.maxStack);
+                out.writeShort(code.maxLocals);
+                out.writeInt(code.length);
+                out.write(code.bytes, 0, code.length);
+                out.writeShort(0);
+                out.writeShort(0);
+            }
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException error) {
+            // never thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(error);
+        }
+    }
+
+    // Constant pool entries are shared, keyed by their tag and contents.
+    private int entry(String key, int size, PoolWriter writer) {
+        Integer index = entries.get(key);
+        if (index != null) return index;
+
+        try {
+            writer.write(poolOut);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        index = poolCount;
+        poolCount += size;
+        if (poolCount > 0xFFFF) throw new TooLarge("Too many constants.");
+        entries.put(key, index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int classRef(String name) {
+        int nameIndex = utf8(name);
+        return entry("C" + name, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    private int string(String value) {
+        int valueIndex = utf8(value);
+        return entry("S" + value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(valueIndex);
+        });
+    }
+
+    private int integer(int value) {
+        return entry("I" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    private int doubleValue(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, 2, out -> {
+            out.writeByte(6);
+            out.writeLong(bits);
+        });
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + ":" + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return entry(tag + owner + "." + name + ":" + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    static final class Label {
+        private int position = -1;
+        // operand stack depth at the label, -1 until a jump or the label
+        // itself fixes it
+        private int depth = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    // The body of one method. Tracks the operand stack depth as code is
+    // added, so max_stack comes out without a separate pass.
+    final class Code {
+        private final int name;
+        private final int descriptor;
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        int maxLocals = 0;
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(int name, int descriptor) {
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        private void emitByte(int value) {
+            if (length == bytes.length) {
+                if (length == 0xFFFF) throw new TooLarge("Method code too large.");
+                bytes = Arrays.copyOf(bytes, Math.min(bytes.length * 2, 0xFFFF));
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void emitShort(int value) {
+            emitByte(value >> 8);
+            emitByte(value);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        // An instruction with no operands.
+        void op(int opcode, int stackDelta) {
+            emitByte(opcode);
+            adjust(stackDelta);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emitByte(BIPUSH);
+                emitByte(value);
+                adjust(1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                emitByte(SIPUSH);
+                emitShort(value);
+                adjust(1);
+            } else {
+                emitByte(LDC_W);
+                emitShort(integer(value));
+                adjust(1);
+            }
+        }
+
+        void pushDouble(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(DCONST_0, 2);
+            } else if (value == 1.0) {
+                op(DCONST_1, 2);
+            } else {
+                emitByte(LDC2_W);
+                emitShort(doubleValue(value));
+                adjust(2);
+            }
+        }
+
+        void pushString(String value) {
+            emitByte(LDC_W);
+            emitShort(string(value));
+            adjust(1);
+        }
+
+        // ILOAD/DLOAD/ALOAD and the matching stores.
+        void local(int opcode, int index, int stackDelta) {
+            if (index > 0xFF) {
+                emitByte(WIDE);
+                emitByte(opcode);
+                emitShort(index);
+            } else {
+                emitByte(opcode);
+                emitByte(index);
+            }
+            adjust(stackDelta);
+        }
+
+        void type(int opcode, String className) {
+            emitByte(opcode);
+            emitShort(classRef(className));
+        }
+
+        // NEW, leaving the uninitialized object for a constructor call.
+        void newObject(String className) {
+            type(NEW, className);
+            adjust(1);
+        }
+
+        void getStatic(String owner, String name, String descriptor) {
+            emitByte(GETSTATIC);
+            emitShort(member(9, owner, name, descriptor));
+            adjust(slots(descriptor.charAt(0)));
+        }
+
+        void invokeStatic(String owner, String name, String descriptor) {
+            invoke(INVOKESTATIC, owner, name, descriptor, 0);
+        }
+
+        void invokeVirtual(String owner, String name, String descriptor) {
+            invoke(INVOKEVIRTUAL, owner, name, descriptor, 1);
+        }
+
+        void invokeSpecial(String owner, String name, String descriptor) {
+            invoke(INVOKESPECIAL, owner, name, descriptor, 1);
+        }
+
+        private void invoke(int opcode, String owner, String name, String descriptor, int receiver) {
+            emitByte(opcode);
+            emitShort(member(10, owner, name, descriptor));
+
+            int delta = -receiver;
+            int i = 1;
+            while (descriptor.charAt(i) != ')') {
+                char c = descriptor.charAt(i);
+                delta -= slots(c);
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                i++;
+            }
+            delta += slots(descriptor.charAt(i + 1));
+            adjust(delta);
+        }
+
+        private int slots(char type) {
+            if (type == 'V') return 0;
+            if (type == 'D' || type == 'J') return 2;
+            return 1;
+        }
+
+        Label label() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        // A GOTO or conditional branch. The operands it pops are given by
+        // stackDelta, which is applied before the target depth is recorded.
+        void jump(int opcode, Label target, int stackDelta) {
+            adjust(stackDelta);
+            if (target.depth < 0) target.depth = stack;
+            target.jumps.add(length);
+            emitByte(opcode);
+            emitShort(0);
+        }
+
+        void place(Label label) {
+            label.position = length;
+            if (label.depth >= 0) {
+                stack = label.depth;
+            } else {
+                label.depth = stack;
+            }
+        }
+
+        private void resolveJumps() {
+            for (Label label : labels) {
+                for (int at : label.jumps) {
+                    int offset = label.position - at;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new TooLarge("Jump too far.");
+                    }
+                    bytes[at + 1] = (byte) (offset >> 8);
+                    bytes[at + 2] = (byte) offset;
+                }
+            }
+        }
+    }
+}
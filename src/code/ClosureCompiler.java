@@ -0,0 +1,542 @@
+package code;
+
+import java.util.List;
+
+// Turns a resolved program into a tree of closures once, up front. Every
+// operator, variable address and declared type is looked at here, so running
+// a node is a direct call with no visitor dispatch and no switch on the
+// operator. The closures run against the same Environment frames as the
+// Interpreter, and INT and FLOAT locals are read and written unboxed.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Stmt.Visitor<ClosureCompiler.StmtNode> {
+
+    interface ExprNode {
+        Object eval(Environment environment);
+
+        // Unboxed entry points for consumers that want a primitive, such as
+        // a store into an INT local or an INT-specialized BinaryNode. A
+        // value of any other type comes back in an UnexpectedValue.
+        default int evalInt(Environment environment) throws UnexpectedValue {
+            Object value = eval(environment);
+            if (value instanceof Integer) return (Integer) value;
+            throw new UnexpectedValue(value);
+        }
+
+        default double evalFloat(Environment environment) throws UnexpectedValue {
+            Object value = eval(environment);
+            if (value instanceof Double) return (Double) value;
+            throw new UnexpectedValue(value);
+        }
+    }
+
+    // Carries the already evaluated value back to the caller, so nothing is
+    // evaluated twice. Only thrown when a typed guess was wrong, which
+    // happens at most once per node before it turns generic, or right before
+    // a type error.
+    static final class UnexpectedValue extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        UnexpectedValue(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    interface StmtNode {
+        void exec(Environment environment);
+    }
+
+    private final Environment globals;
+    private final Output output;
+    private final Input input;
+
+    ClosureCompiler(Environment globals, Output output, Input input) {
+        this.globals = globals;
+        this.output = output;
+        this.input = input;
+    }
+
+    StmtNode compile(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+
+        if (nodes.length == 1) return nodes[0];
+        return environment -> {
+            for (StmtNode node : nodes) {
+                node.exec(environment);
+            }
+        };
+    }
+
+    StmtNode compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private StmtNode declaration(Token name, Expr initializer, Local local, boolean redeclaration,
+                                 boolean typeSafe, String dataType) {
+        if (local != null && !redeclaration) {
+            if (initializer == null) {
+                int index = local.index;
+                return environment -> environment.objects[index] = null;
+            }
+            return store(name, 0, local, compile(initializer), typeSafe, "Instance must be of type ");
+        }
+
+        ExprNode value = initializer == null ? environment -> null : compile(initializer);
+        boolean checked = initializer != null;
+
+        return environment -> {
+            Object result = value.eval(environment);
+            if (checked && !Values.isValidType(result, dataType)) {
+                throw new RuntimeError(name, "Instance must be of type " + dataType);
+            }
+            if (redeclaration) {
+                throw new RuntimeError(name, "Runtime Error: Variable " + name.lexeme + " is already defined");
+            }
+            globals.define(name, result, dataType);
+        };
+    }
+
+    // Evaluates the value, checks it against the declared type unless the
+    // TypeChecker proved it typeSafe, and writes it into the local's typed
+    // array.
+    private StmtNode store(Token name, int depth, Local local, ExprNode value, boolean typeSafe,
+                           String typeError) {
+        int index = local.index;
+        String message = typeError + local.dataType;
+
+        switch (local.kind) {
+            case Local.INT:
+                return environment -> {
+                    int result;
+                    try {
+                        result = value.evalInt(environment);
+                    } catch (UnexpectedValue e) {
+                        throw new RuntimeError(name, message);
+                    }
+                    environment.ancestor(depth).ints[index] = result;
+                };
+            case Local.FLOAT:
+                return environment -> {
+                    double result;
+                    try {
+                        result = value.evalFloat(environment);
+                    } catch (UnexpectedValue e) {
+                        throw new RuntimeError(name, message);
+                    }
+                    environment.ancestor(depth).floats[index] = result;
+                };
+            case Local.BOOL:
+                return environment -> {
+                    Object result = value.eval(environment);
+                    if (!typeSafe && !(result instanceof Boolean)) throw new RuntimeError(name, message);
+                    environment.ancestor(depth).bools[index] = (Boolean) result;
+                };
+            case Local.CHAR:
+                return environment -> {
+                    Object result = value.eval(environment);
+                    if (!typeSafe && !(result instanceof Character)) throw new RuntimeError(name, message);
+                    environment.ancestor(depth).chars[index] = (Character) result;
+                };
+            default:
+                Class<?> type = local.type;
+                return environment -> {
+                    Object result = value.eval(environment);
+                    if (!typeSafe && !type.isInstance(result)) throw new RuntimeError(name, message);
+                    environment.ancestor(depth).objects[index] = result;
+                };
+        }
+    }
+
+    // An assignment whose value is not used, as in an expression statement.
+    private StmtNode assignmentStatement(Token name, int depth, Local local, ExprNode value,
+                                         boolean typeSafe) {
+        if (depth < 0) {
+            Global global = new Global(name);
+            return environment -> {
+                Object result = value.eval(environment);
+                Environment.assign(global.binding(), name, result);
+            };
+        }
+        return store(name, depth, local, value, typeSafe, "Input must be of type ");
+    }
+
+    private ExprNode assignment(Token name, int depth, Local local, ExprNode value, boolean typeSafe) {
+        if (depth < 0) {
+            Global global = new Global(name);
+            return environment -> {
+                Object result = value.eval(environment);
+                Environment.assign(global.binding(), name, result);
+                return result;
+            };
+        }
+
+        StmtNode store = store(name, depth, local, value, typeSafe, "Input must be of type ");
+        return environment -> {
+            store.exec(environment);
+            return environment.getAt(depth, local);
+        };
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode body = compile(stmt.statements);
+        if (stmt.slotCount == 0) return body;
+
+        int[] layout = stmt.layout;
+        return environment -> body.exec(environment.enter(layout));
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) stmt.expression;
+            return assignmentStatement(assign.name, assign.depth, assign.local, compile(assign.value),
+                    assign.typeSafe);
+        }
+
+        ExprNode expression = compile(stmt.expression);
+        return expression::eval;
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode thenBranch = compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            return environment -> {
+                if (Values.isTruthy(condition.eval(environment))) {
+                    thenBranch.exec(environment);
+                }
+            };
+        }
+
+        StmtNode elseBranch = compile(stmt.elseBranch);
+        return environment -> {
+            if (Values.isTruthy(condition.eval(environment))) {
+                thenBranch.exec(environment);
+            } else {
+                elseBranch.exec(environment);
+            }
+        };
+    }
+
+    @Override
+    public StmtNode visitDisplayStmt(Stmt.Display stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return environment -> output.print(Values.stringify(expression.eval(environment)));
+    }
+
+    @Override
+    public StmtNode visitScanStmt(Stmt.Scan stmt) {
+        List<Token> variables = stmt.variables;
+        int[] depths = stmt.depths;
+        Local[] locals = stmt.locals;
+
+        return environment -> {
+            String[] dataTypes = new String[variables.size()];
+            for (int i = 0; i < dataTypes.length; i++) {
+                dataTypes[i] = depths[i] < 0
+                        ? globals.getDataType(variables.get(i))
+                        : locals[i].dataType;
+            }
+
+            output.flush();
+            Object[] values = Values.scanLine(input, variables, dataTypes);
+
+            for (int i = 0; i < values.length; i++) {
+                if (depths[i] < 0) {
+                    globals.assign(variables.get(i), values[i]);
+                } else {
+                    // scanLine has already checked them against the declared types
+                    environment.setAt(depths[i], locals[i], values[i]);
+                }
+            }
+        };
+    }
+
+    @Override
+    public StmtNode visitIntStmt(Stmt.Int stmt) {
+        return declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe,
+                "INT");
+    }
+
+    @Override
+    public StmtNode visitCharStmt(Stmt.Char stmt) {
+        return declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe,
+                "CHAR");
+    }
+
+    @Override
+    public StmtNode visitFloatStmt(Stmt.Float stmt) {
+        return declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe,
+                "FLOAT");
+    }
+
+    @Override
+    public StmtNode visitBoolStmt(Stmt.Bool stmt) {
+        return declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe,
+                "BOOL");
+    }
+
+    @Override
+    public StmtNode visitStringStmt(Stmt.String stmt) {
+        return declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe,
+                "STRING");
+    }
+
+    @Override
+    public StmtNode visitMultiVarStmt(Stmt.MultiVar stmt) {
+        StmtNode[] assignments = new StmtNode[stmt.names.size()];
+        for (int i = 0; i < assignments.length; i++) {
+            Expr initializer = stmt.initializers.get(i);
+            ExprNode value = initializer == null ? environment -> null : compile(initializer);
+            assignments[i] = assignmentStatement(stmt.names.get(i), stmt.depths[i], stmt.locals[i], value,
+                    false);
+        }
+
+        return environment -> {
+            for (StmtNode assignment : assignments) {
+                assignment.exec(environment);
+            }
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode body = compile(stmt.body);
+        return environment -> {
+            while (Values.isTruthy(condition.eval(environment))) {
+                body.exec(environment);
+            }
+        };
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        return assignment(expr.name, expr.depth, expr.local, compile(expr.value), expr.typeSafe);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        Concatenation concatenation = Concatenation.of(expr);
+        if (concatenation != null) return concatenation(concatenation);
+
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        ExprNode specializing = BinaryNode.create(operator, left, right);
+        if (specializing != null) return specializing;
+
+        return environment -> {
+            left.eval(environment);
+            right.eval(environment);
+            return null;
+        };
+    }
+
+    // One node for a whole chain of & and $, appending every operand to a
+    // single StringBuilder. The builder starts at the length the chain
+    // produced last time, so a chain run in a loop usually never grows it.
+    private ExprNode concatenation(Concatenation concatenation) {
+        ExprNode[] parts = new ExprNode[concatenation.operands.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = compile(concatenation.operands.get(i));
+        }
+        boolean[] newlines = concatenation.newlines;
+        int[] capacity = {16};
+
+        return environment -> {
+            StringBuilder text = new StringBuilder(capacity[0]);
+            text.append(Values.stringify(parts[0].eval(environment)));
+            for (int i = 1; i < parts.length; i++) {
+                if (newlines[i - 1]) text.append('\n');
+                text.append(Values.stringify(parts[i].eval(environment)));
+            }
+            capacity[0] = text.length();
+            return text.toString();
+        };
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value instanceof Integer) return new IntLiteral((Integer) value);
+        if (value instanceof Double) return new FloatLiteral((Double) value);
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.OR) {
+            return environment -> {
+                Object value = left.eval(environment);
+                if (Values.isTruthy(value)) return value;
+                return right.eval(environment);
+            };
+        }
+
+        return environment -> {
+            Object value = left.eval(environment);
+            if (!Values.isTruthy(value)) return value;
+            return right.eval(environment);
+        };
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case NOT:
+                return environment -> !Values.isTruthy(right.eval(environment));
+            case MINUS:
+                return environment -> Values.negate(operator, right.eval(environment));
+            case NEXT_LINE:
+                return environment -> "\n" + Values.stringify(right.eval(environment));
+            default:
+                return environment -> Values.unary(operator, right.eval(environment));
+        }
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        Token name = expr.name;
+        int depth = expr.depth;
+        Local local = expr.local;
+
+        if (depth < 0) {
+            Global global = new Global(name);
+            return environment -> global.binding().value;
+        }
+
+        int index = local.index;
+        switch (local.kind) {
+            case Local.INT:
+                return new IntLocal(depth, index);
+            case Local.FLOAT:
+                return new FloatLocal(depth, index);
+            case Local.BOOL:
+                return environment -> environment.ancestor(depth).bools[index];
+            case Local.CHAR:
+                return environment -> environment.ancestor(depth).chars[index];
+            default:
+                return environment -> environment.ancestor(depth).objects[index];
+        }
+    }
+
+    // A global variable, looked up by name the first time it is used. Its
+    // Binding never changes after that.
+    private final class Global {
+        private final Token name;
+        private Environment.Binding binding;
+
+        Global(Token name) {
+            this.name = name;
+        }
+
+        Environment.Binding binding() {
+            if (binding == null) binding = globals.binding(name);
+            return binding;
+        }
+    }
+
+    private static final class IntLiteral implements ExprNode {
+        private final int value;
+        private final Object boxed;
+
+        IntLiteral(Integer value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return boxed;
+        }
+
+        @Override
+        public int evalInt(Environment environment) {
+            return value;
+        }
+    }
+
+    private static final class FloatLiteral implements ExprNode {
+        private final double value;
+        private final Object boxed;
+
+        FloatLiteral(Double value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return boxed;
+        }
+
+        @Override
+        public double evalFloat(Environment environment) {
+            return value;
+        }
+    }
+
+    private static final class IntLocal implements ExprNode {
+        private final int depth;
+        private final int index;
+
+        IntLocal(int depth, int index) {
+            this.depth = depth;
+            this.index = index;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return environment.ancestor(depth).ints[index];
+        }
+
+        @Override
+        public int evalInt(Environment environment) {
+            return environment.ancestor(depth).ints[index];
+        }
+    }
+
+    private static final class FloatLocal implements ExprNode {
+        private final int depth;
+        private final int index;
+
+        FloatLocal(int depth, int index) {
+            this.depth = depth;
+            this.index = index;
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            return environment.ancestor(depth).floats[index];
+        }
+
+        @Override
+        public double evalFloat(Environment environment) {
+            return environment.ancestor(depth).floats[index];
+        }
+    }
+}
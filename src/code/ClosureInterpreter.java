@@ -0,0 +1,31 @@
+package code;
+
+import java.util.List;
+
+// Execution engine that compiles the whole program into closures with the
+// ClosureCompiler and then runs them. Slower to start than the Interpreter
+// but every node is decided once instead of on every evaluation.
+class ClosureInterpreter {
+    private final Environment globals = new Environment();
+    private final Output output;
+    private final Input input;
+    private final Diagnostics diagnostics;
+
+    ClosureInterpreter(Output output, Input input, Diagnostics diagnostics) {
+        this.output = output;
+        this.input = input;
+        this.diagnostics = diagnostics;
+    }
+
+    void interpret(List<Stmt> statements) {
+        ClosureCompiler.StmtNode program = new ClosureCompiler(globals, output, input).compile(statements);
+        try {
+            program.exec(globals);
+        } catch (RuntimeError error) {
+            output.flush();
+            diagnostics.runtimeError(error);
+        } finally {
+            output.flush();
+        }
+    }
+}
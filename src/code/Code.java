@@ -1,115 +1,149 @@
 package code;
 
-import static code.TokenType.DISPLAY;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 public class Code {
 
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private enum Engine { INTERPRETER, VM, CLOSURE, JVM }
+
+    private static Output output = Output.standard();
+    // the file behind --out, closed once the program is done with it
+    private static FileChannel outFile;
+    private static Input input = Input.standard();
+    private static Interpreter interpreter;
+    private static VM vm;
+    private static ClosureInterpreter closures;
+    private static JvmInterpreter jvm;
+    private static Engine engine = Engine.INTERPRETER;
+    private static boolean stats = false;
+    private static ScriptCache cache;
+    private static final Diagnostics diagnostics = new Diagnostics(System.err);
+    // one numbering of names for every line the REPL runs against the
+    // engines' globals
+    private static final SymbolTable symbols = new SymbolTable();
+
+    private static final String USAGE =
+            "Usage: jlox [--vm | --closure | --jvm] [--stats] [--out=file] [--input=file] [--cache=dir] [script]";
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        String script = null;
+        boolean batch = false;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                engine = Engine.VM;
+            } else if (arg.equals("--closure")) {
+                engine = Engine.CLOSURE;
+            } else if (arg.equals("--jvm")) {
+                engine = Engine.JVM;
+            } else if (arg.equals("--stats")) {
+                stats = true;
+            } else if (arg.startsWith("--out=") && outFile == null) {
+                // DISPLAY text goes straight to the file's channel
+                outFile = FileChannel.open(Paths.get(arg.substring("--out=".length())),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                output = new Output.Buffered(outFile, Charset.defaultCharset(), Output.DEFAULT_BUFFER_SIZE);
+            } else if (arg.startsWith("--input=")) {
+                // batch mode: SCAN reads its lines from the file
+                input = Input.file(Paths.get(arg.substring("--input=".length())));
+                batch = true;
+            } else if (arg.startsWith("--cache=")) {
+                // scripts that have not changed are not compiled again
+                cache = new ScriptCache(Paths.get(arg.substring("--cache=".length())));
+            } else if (arg.startsWith("--") || script != null) {
+                System.out.println(USAGE);
+                System.exit(64);
+            } else {
+                script = arg;
+            }
+        }
+        if (batch && script == null) {
+            // the REPL reads its lines from the terminal, never the file
+            System.out.println("--input needs a script to run.");
+            System.out.println(USAGE);
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+        }
+
+        interpreter = new Interpreter(output, input, diagnostics);
+        vm = new VM(output, input, diagnostics, stats);
+        closures = new ClosureInterpreter(output, input, diagnostics);
+        jvm = new JvmInterpreter(output, input, diagnostics);
+
+        try {
+            if (script != null) {
+                runFile(script);
+            } else {
+                runPrompt();
+            }
+        } finally {
+            closeOutput();
+        }
+
+        //indicate an error in the exit code
+        if (script != null) {
+            if (diagnostics.hadError) System.exit(65);
+            if (diagnostics.hadRuntimeError) System.exit(70);
         }
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+    private static void closeOutput() throws IOException {
+        output.flush();
+        if (outFile != null) outFile.close();
+    }
 
+    private static void runPrompt() {
+        // lines come from the same Input as SCAN, so neither reads ahead of
+        // the other
         for (;;) {
             System.out.print("> ");
-            String line = reader.readLine();
+            String line = input.readLine();
             if (line == null) break;
-            run(line);
-            hadError = false;
+            run(Compilation.of(SourceReader.of(line), symbols, diagnostics));
+            diagnostics.hadError = false;
         }
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-
-        //indicate an error in the exit code
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        // lexed straight from a mapping of the file, never read into a String
+        Path script = Paths.get(path);
+        if (cache != null) {
+            run(cache.compile(script, Charset.defaultCharset(), symbols, diagnostics));
+        } else {
+            run(Compilation.of(SourceReader.of(script, Charset.defaultCharset()), symbols, diagnostics));
+        }
     }
 
-    private static <Token> void run(String source) {
-        Scanner scanner = new Scanner(source);
-//        List<Token> tokens = scanner.scanTokens();
-        List<code.Token> tokens = scanner.scanTokens();
-
-        // For now, just print the tokens.
-    //    for (code.Token token : tokens) {
-    //        System.out.println(token);
-    //    }
-
-        Parser parser = new Parser((List<code.Token>) tokens);
-        List<code.Stmt> statements = parser.parse();
-
-        //flag to check if DISPLAY token exists
-        boolean display_exists = false;
-        // Stop if there was a syntax error.
-
-        if (hadError) {
-            return;
-        } 
-
-        interpreter.interpret(statements);
+    private static void run(Compilation compilation) {
+        List<code.Stmt> statements = compilation.statements;
+
+        // Stop if there was a syntax or type error.
+        if (diagnostics.hadError) return;
+
+        if (engine == Engine.VM) {
+            Chunk chunk = new BytecodeCompiler(diagnostics).compile(statements);
+            if (diagnostics.hadError) return;
+            vm.interpret(chunk);
+            if (stats) vm.printStats();
+        } else if (engine == Engine.CLOSURE) {
+            closures.interpret(statements);
+        } else if (engine == Engine.JVM) {
+            jvm.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
         
         //if there are no errors
-        if(!hadRuntimeError && !hadError){
-             //checks if there is DISPLAY token
-             for (code.Token token : tokens) {
-                if (token.type.equals(DISPLAY)){
-                    display_exists=true;
-                }
-            }
-
+        if(!diagnostics.hadRuntimeError && !diagnostics.hadError){
             //prints no error if there is NO DISPLAY token and if no errors
-            if(!display_exists){
+            if(!compilation.displays){
                 System.out.print("No error");
             }
         }
     }
-
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
-
-    private static void report(int line, String where,
-                               String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
-
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
-    }
 }
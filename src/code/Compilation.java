@@ -0,0 +1,55 @@
+package code;
+
+import java.util.List;
+
+// One script through the front end: Scanner, Parser, Optimizer,
+// InvariantHoister, Resolver and TypeChecker, reporting to its own
+// Diagnostics. Nothing here is shared between compilations but the
+// SymbolTable a caller passes in, so any number with their own tables can
+// run on different threads.
+final class Compilation {
+    // whether the script has a DISPLAY anywhere, kept instead of the
+    // tokens so they can be collected once parsed
+    final boolean displays;
+    // null when the script did not parse
+    final List<Stmt> statements;
+    final Diagnostics diagnostics;
+
+    private Compilation(boolean displays, List<Stmt> statements, Diagnostics diagnostics) {
+        this.displays = displays;
+        this.statements = statements;
+        this.diagnostics = diagnostics;
+    }
+
+    static Compilation of(String source, Diagnostics diagnostics) {
+        return of(SourceReader.of(source), new SymbolTable(), diagnostics);
+    }
+
+    // The symbols are the numbering of names the program's globals are
+    // stored under, so a program has to run against globals that were
+    // defined by programs compiled with the same table.
+    static Compilation of(SourceReader source, SymbolTable symbols, Diagnostics diagnostics) {
+        TokenStream tokens = new Scanner(source, symbols, diagnostics).scanTokens();
+        List<Stmt> statements = new Parser(tokens, diagnostics).parse();
+        boolean displays = tokens.contains(TokenType.DISPLAY);
+
+        // Stop if there was a syntax error.
+        if (diagnostics.hadError) return new Compilation(displays, null, diagnostics);
+
+        statements = new Optimizer().optimize(statements);
+        statements = new InvariantHoister().hoist(statements);
+        return resolve(displays, statements, diagnostics);
+    }
+
+    // The Resolver and TypeChecker passes alone, for a tree that has been
+    // through the others before, such as one from the ScriptCache.
+    static Compilation resolve(boolean displays, List<Stmt> statements, Diagnostics diagnostics) {
+        new Resolver().resolve(statements);
+        new TypeChecker(diagnostics).check(statements);
+        return new Compilation(displays, statements, diagnostics);
+    }
+
+    boolean succeeded() {
+        return !diagnostics.hadError;
+    }
+}
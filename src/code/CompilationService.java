@@ -0,0 +1,53 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Compiles many scripts at once on a fixed pool of threads, each into its
+// own Compilation with a Diagnostics that collects its messages. A
+// compiled script can then be run by an engine of its own on any thread.
+final class CompilationService implements AutoCloseable {
+    private final ExecutorService executor;
+
+    CompilationService(int threads) {
+        executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    Future<Compilation> submit(String source) {
+        return executor.submit(() -> Compilation.of(source, new Diagnostics()));
+    }
+
+    // The compilations come back in the order of the sources.
+    List<Compilation> compileAll(List<String> sources) throws InterruptedException {
+        List<Future<Compilation>> futures = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            futures.add(submit(source));
+        }
+
+        List<Compilation> compilations = new ArrayList<>(sources.size());
+        for (Future<Compilation> future : futures) {
+            try {
+                compilations.add(future.get());
+            } catch (ExecutionException error) {
+                Throwable cause = error.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+        return compilations;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,69 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A chain of & and $ operators, such as "a & \" \" & b & $ & c", taken apart
+// into its operands so an engine can build the text in one StringBuilder
+// instead of creating a String at every level of the Expr.Binary tree.
+// Both operators only stringify their operands, and the operands are still
+// evaluated left to right, so the text comes out the same.
+final class Concatenation {
+    final List<Expr> operands;
+    // newlines[i] is true when operands i and i + 1 are joined by $
+    final boolean[] newlines;
+    // A starting size for the StringBuilder: the literal text in the chain
+    // and its newlines, plus a guess for every other operand.
+    final int capacity;
+
+    private Concatenation(List<Expr> operands, List<Boolean> separators) {
+        this.operands = operands;
+        newlines = new boolean[separators.size()];
+        for (int i = 0; i < newlines.length; i++) {
+            newlines[i] = separators.get(i);
+        }
+
+        int size = newlines.length;
+        for (Expr operand : operands) {
+            Object value = operand instanceof Expr.Literal ? ((Expr.Literal) operand).value : null;
+            size += value instanceof String ? ((String) value).length() : 16;
+        }
+        capacity = size;
+    }
+
+    // Returns null unless the expression is a & or $ operation.
+    static Concatenation of(Expr expr) {
+        if (!isConcat(unwrap(expr))) return null;
+
+        List<Expr> operands = new ArrayList<>();
+        List<Boolean> separators = new ArrayList<>();
+        flatten(expr, operands, separators);
+        return new Concatenation(operands, separators);
+    }
+
+    static boolean isConcat(Expr expr) {
+        if (!(expr instanceof Expr.Binary)) return false;
+        TokenType type = ((Expr.Binary) expr).operator.type;
+        return type == TokenType.CONCAT || type == TokenType.NEXT_LINE;
+    }
+
+    private static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        return expr;
+    }
+
+    private static void flatten(Expr expr, List<Expr> operands, List<Boolean> separators) {
+        Expr unwrapped = unwrap(expr);
+        if (!isConcat(unwrapped)) {
+            operands.add(expr);
+            return;
+        }
+
+        Expr.Binary binary = (Expr.Binary) unwrapped;
+        flatten(binary.left, operands, separators);
+        separators.add(binary.operator.type == TokenType.NEXT_LINE);
+        flatten(binary.right, operands, separators);
+    }
+}
@@ -0,0 +1,60 @@
+package code;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// The errors of one script: everything the Scanner, Parser, TypeChecker,
+// BytecodeCompiler and the engines report goes here instead of to static
+// state in Code, so scripts can be compiled and run on several threads at
+// once. Messages are printed to the stream as they come, or kept in a list
+// when there is none.
+final class Diagnostics {
+    private final PrintStream stream;
+    private final List<String> messages = new ArrayList<>();
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    // Collects the messages for messages().
+    Diagnostics() {
+        this(null);
+    }
+
+    Diagnostics(PrintStream stream) {
+        this.stream = stream;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        print(error.getMessage() + "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+
+    List<String> messages() {
+        return messages;
+    }
+
+    private void report(int line, String where, String message) {
+        print("[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+
+    private void print(String message) {
+        if (stream != null) {
+            stream.println(message);
+        } else {
+            messages.add(message);
+        }
+    }
+}
@@ -1,84 +1,204 @@
 package code;
 
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class Environment {
+    // A global variable. Globals are never removed or redefined, so a
+    // Binding once found stays the variable's storage for good and callers
+    // may hold on to it instead of looking the name up again.
+    static final class Binding {
+        final String dataType;
+        Object value;
+
+        private Binding(String dataType, Object value) {
+            this.dataType = dataType;
+            this.value = value;
+        }
+    }
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-    private final Map<String, String> dataTypes = new HashMap<>();
+    // The globals by the SymbolTable number of their names, so a program
+    // only runs against globals defined by programs scanned with the same
+    // table.
+    private Binding[] bindings;
+
+    // Local scopes are laid out by the Resolver: every variable has a fixed
+    // storage kind and an index into the array for that kind, so numbers,
+    // booleans and characters are stored unboxed. Only the global scope is
+    // looked up by name, and then by the name's number.
+    int[] ints;
+    double[] floats;
+    boolean[] bools;
+    char[] chars;
+    Object[] objects;
+
+    // A frame only lives while its block runs, so once control is back in
+    // this frame the last block frame opened under it is free again and is
+    // reset for the next block instead of allocating a new one.
+    private Environment child;
 
     Environment() {
         enclosing = null;
+        bindings = new Binding[64];
+        ints = null;
+        floats = null;
+        bools = null;
+        chars = null;
+        objects = null;
     }
 
-    Environment(Environment enclosing) {
+    private Environment(Environment enclosing, int[] layout) {
         this.enclosing = enclosing;
+        bindings = null;
+        reset(layout);
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    // The frame for a block entered from this one.
+    Environment enter(int[] layout) {
+        if (child == null) {
+            child = new Environment(this, layout);
+        } else {
+            child.reset(layout);
         }
+        return child;
+    }
 
-        if (enclosing != null) 
-            return enclosing.get(name);
+    // Only grows the arrays. Stale values need no clearing: every slot is
+    // written by its declaration before the Resolver lets anything read it.
+    private void reset(int[] layout) {
+        if (layout[Local.INT] > 0 && (ints == null || ints.length < layout[Local.INT])) {
+            ints = new int[layout[Local.INT]];
+        }
+        if (layout[Local.FLOAT] > 0 && (floats == null || floats.length < layout[Local.FLOAT])) {
+            floats = new double[layout[Local.FLOAT]];
+        }
+        if (layout[Local.BOOL] > 0 && (bools == null || bools.length < layout[Local.BOOL])) {
+            bools = new boolean[layout[Local.BOOL]];
+        }
+        if (layout[Local.CHAR] > 0 && (chars == null || chars.length < layout[Local.CHAR])) {
+            chars = new char[layout[Local.CHAR]];
+        }
+        if (layout[Local.OBJECT] > 0 && (objects == null || objects.length < layout[Local.OBJECT])) {
+            objects = new Object[layout[Local.OBJECT]];
+        }
+    }
+
+    Object get(Token name) {
+        return binding(name).value;
+    }
+
+    Binding binding(Token name) {
+        Binding binding = lookup(name);
+        if (binding != null) return binding;
+
+        if (enclosing != null)
+            return enclosing.binding(name);
 
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.");
     }
 
-    String getDataType(String varName) {
-        String varType = dataTypes.get(varName);
-        return varType;       
+    Object getAt(int distance, Local local) {
+        return ancestor(distance).get(local);
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
+    private Object get(Local local) {
+        switch (local.kind) {
+            case Local.INT:
+                return ints[local.index];
+            case Local.FLOAT:
+                return floats[local.index];
+            case Local.BOOL:
+                return bools[local.index];
+            case Local.CHAR:
+                return chars[local.index];
+            default:
+                return objects[local.index];
+        }
+    }
 
-            String varDataType = dataTypes.get(name.lexeme);
+    String getDataType(Token varName) {
+        Binding binding = lookup(varName);
+        return binding == null ? null : binding.dataType;
+    }
 
-            if (!isValidType(value, varDataType)) {
-                throw new RuntimeError(name, "Input must be of type " + dataTypes.get(name.lexeme));
-            }
+    // A name without a number, such as a temporary the InvariantHoister
+    // made up, is never a global.
+    private Binding lookup(Token name) {
+        if (bindings == null || name.symbol < 0 || name.symbol >= bindings.length) return null;
+        return bindings[name.symbol];
+    }
+
+    void assign(Token name, Object value) {
+        assign(binding(name), name, value);
+    }
 
-            values.put(name.lexeme, value);
-            return;
+    static void assign(Binding binding, Token name, Object value) {
+        if (!Values.isValidType(value, binding.dataType)) {
+            throw new RuntimeError(name, "Input must be of type " + binding.dataType);
         }
+        binding.value = value;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    void assignAt(int distance, Local local, Token name, Object value) {
+        if (!local.type.isInstance(value)) {
+            throw new RuntimeError(name, "Input must be of type " + local.dataType);
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
-    }
-
-    private boolean isValidType(Object value, String dataType) {
-        // Check if the value's type matches the expected data type
-        switch (dataType) {
-            case "INT":
-                return value instanceof Integer;
-            case "FLOAT":
-                return value instanceof Double;
-            case "CHAR":
-                return value instanceof Character;
-            case "BOOL":
-                return value instanceof Boolean;
-            case "STRING":
-                return value instanceof String;
+        ancestor(distance).set(local, value);
+    }
+
+    // For a value already known to be of the declared type.
+    void setAt(int distance, Local local, Object value) {
+        ancestor(distance).set(local, value);
+    }
+
+    // The caller has already checked the value against the declared type.
+    private void set(Local local, Object value) {
+        switch (local.kind) {
+            case Local.INT:
+                ints[local.index] = (Integer) value;
+                break;
+            case Local.FLOAT:
+                floats[local.index] = (Double) value;
+                break;
+            case Local.BOOL:
+                bools[local.index] = (Boolean) value;
+                break;
+            case Local.CHAR:
+                chars[local.index] = (Character) value;
+                break;
             default:
-                return false;
+                objects[local.index] = value;
+                break;
         }
     }
 
+    Environment ancestor(int distance) {
+        Environment environment = this;
+        for (int i = 0; i < distance; i++) {
+            environment = environment.enclosing;
+        }
+
+        return environment;
+    }
+
     void define(Token varName, Object value, String dataType) {
-        if (values.containsKey(varName.lexeme)) {
+        if (lookup(varName) != null) {
             throw new RuntimeError(varName, "Runtime Error: Variable " + varName.lexeme + " is already defined");
         }
-        values.put(varName.lexeme, value);
-        dataTypes.put(varName.lexeme, dataType);
+        if (varName.symbol < 0) {
+            throw new RuntimeError(varName, "Runtime Error: Variable " + varName.lexeme + " cannot be global");
+        }
+        if (varName.symbol >= bindings.length) {
+            bindings = Arrays.copyOf(bindings, Math.max(bindings.length * 2, varName.symbol + 1));
+        }
+        bindings[varName.symbol] = new Binding(dataType, value);
+    }
+
+    void defineAt(Local local, Object value) {
+        set(local, value);
     }
 
 }
@@ -25,6 +25,10 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+
+    int depth = -1;
+    Local local;
+    boolean typeSafe;
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -107,6 +111,9 @@ abstract class Expr {
     }
 
     final Token name;
+
+    int depth = -1;
+    Local local;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,42 @@
+package code;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Where SCAN reads its lines from. One Input is shared by every SCAN of a
+// run, and by the REPL, which always reads from stdin, so a line read
+// ahead into the buffer is never lost between statements.
+final class Input {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+
+    Input(Reader reader, int bufferSize) {
+        this.reader = new BufferedReader(reader, bufferSize);
+    }
+
+    static Input standard() {
+        return new Input(new InputStreamReader(System.in, Charset.defaultCharset()), DEFAULT_BUFFER_SIZE);
+    }
+
+    // Batch mode: SCAN reads its lines from the file instead of stdin.
+    static Input file(Path path) throws IOException {
+        return new Input(new InputStreamReader(Files.newInputStream(path), Charset.defaultCharset()),
+                DEFAULT_BUFFER_SIZE);
+    }
+
+    // The next line without its terminator, or null at the end of input.
+    String readLine() {
+        try {
+            return reader.readLine();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+}
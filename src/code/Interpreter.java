@@ -1,18 +1,50 @@
 package code;
 
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    private Environment environment = new Environment();
+    // Iterations a WHILE runs in the tree-walker, over all the times it is
+    // entered, before it is compiled with the ClosureCompiler.
+    static final int HOT_LOOP = 1000;
+
+    private final Environment globals = new Environment();
+    private Environment environment = globals;
+    private final Output output;
+    private final Input input;
+    private final Diagnostics diagnostics;
+    // Kept here rather than on the nodes, since one Compilation can run on
+    // several Interpreters at once and the compiled closures are bound to
+    // this Interpreter's globals.
+    private final Map<Stmt.While, Loop> loops = new IdentityHashMap<>();
+    // Each chain of & and $, taken apart the first time it runs. Only the
+    // outermost operator of a chain gets an entry.
+    private final Map<Expr.Binary, Concatenation> concatenations = new IdentityHashMap<>();
+
+    // How far one WHILE has got towards HOT_LOOP, then its compiled form.
+    private static final class Loop {
+        int iterations;
+        ClosureCompiler.StmtNode compiled;
+    }
+
+    Interpreter(Output output, Input input, Diagnostics diagnostics) {
+        this.output = output;
+        this.input = input;
+        this.diagnostics = diagnostics;
+    }
+
     void interpret(List<code.Stmt> statements) {
         try {
             for (code.Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Code.runtimeError(error);
+            output.flush();
+            diagnostics.runtimeError(error);
+        } finally {
+            output.flush();
         }
     }
     @Override
@@ -25,9 +57,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object left = evaluate(expr.left);
 
         if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left)) return left;
+            if (Values.isTruthy(left)) return left;
         } else {
-            if (!isTruthy(left)) return left;
+            if (!Values.isTruthy(left)) return left;
         }
 
         return evaluate(expr.right);
@@ -37,73 +69,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case NOT:
-                return !isTruthy(right);
-            case MINUS: 
-                checkNumberOperand(expr.operator, right);
-                if(right instanceof Integer) {
-                    return -(int)right;
-                }
-                else if (right instanceof Double) {
-                    return -(double)right;
-                }
-            case PLUS: 
-                checkNumberOperand(expr.operator, right);
-                if(right instanceof Integer) {
-                    return +(int)right;
-                }
-                else if (right instanceof Double) {
-                    return +(double)right;
-                }
-            case NEXT_LINE:
-                return "\n" + stringify(right);
-        }
-
-        // Unreachable.
-        return null;
+        return Values.unary(expr.operator, right);
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
-    }
-
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Integer || operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
-    }
-
-    private boolean isTruthy(Object object) {
-        if (object == null) return false;
-        if (object instanceof Boolean) return (boolean)object;
-        return true;
+        if (expr.depth < 0) {
+            // left by the Resolver to be found by name, which is one array
+            // load by the name's number
+            return globals.get(expr.name);
+        }
+        return environment.getAt(expr.depth, expr.local);
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
-        if (a == null) return false;
-
-        return a.equals(b);
+    private void assignVariable(Token name, int depth, Local local, Object value, boolean typeSafe) {
+        if (depth < 0) {
+            globals.assign(name, value);
+        } else if (typeSafe) {
+            environment.setAt(depth, local, value);
+        } else {
+            environment.assignAt(depth, local, name, value);
+        }
     }
 
-    private String stringify(Object object) {
-        if (object == null) return "nil";
-
-        if (object instanceof Boolean) {
-            return object.toString().toUpperCase();
+    private void defineVariable(Token name, Local local, boolean redeclaration, Object value, String dataType) {
+        if (local == null) {
+            environment.define(name, value, dataType);
+        } else if (redeclaration) {
+            // found by the Resolver, reported once the declaration runs
+            throw new RuntimeError(name, "Runtime Error: Variable " + name.lexeme + " is already defined");
+        } else {
+            environment.defineAt(local, value);
         }
-
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }        
-
-        return object.toString();
     }
 
     @Override
@@ -135,7 +132,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (stmt.slotCount == 0) {
+            // declares nothing, so it runs in the enclosing frame
+            for (code.Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
+        executeBlock(stmt.statements, environment.enter(stmt.layout));
         return null;
     }
 
@@ -147,7 +151,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitIfStmt(code.Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
+        if (Values.isTruthy(evaluate(stmt.condition))) {
             execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
             execute(stmt.elseBranch);
@@ -158,85 +162,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitDisplayStmt(Stmt.Display stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.print(stringify(value));
+        output.print(Values.stringify(value));
         return null;
     }
 
     @Override
     public Void visitScanStmt(Stmt.Scan stmt) {
-            // read input from the user
-            Scanner scanner = new Scanner(System.in);
-            String input = scanner.nextLine();
-            
-            // splits input string by commas
-            String[] values = input.split(",");
-
-            // checks if the number of input values matches the number of variables
-            if (values.length != stmt.variables.size()) {
-                throw new RuntimeError(stmt.variables.get(0), "Expected " + stmt.variables.size() + " values but got " + values.length + ".");
-            }
-
-            // assign each value to the corresponding variable
-            for (int i = 0; i < stmt.variables.size(); i++) {
-                Token variable = stmt.variables.get(i);
-                Object value = parseValue(values[i].trim());
-
-                // retrieve the expected data type associated with the variable name from the environment
-                String dataType = environment.getDataType(variable.lexeme);
-
-                // validates data type of input value
-                if (!isValidType(value, dataType)) {
-                    throw new RuntimeError(variable, "Input must be of type " + dataType);
-                }
-
-                // Assign the value to the variable
-                environment.assign(variable, value);
-            }
-        
-        return null;
-    }
-
-    private Object parseValue(String value) {
-        // Try to parse the value as different types
-        try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException ignored) { }
-
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException ignored) { }
-
-        if (value.length() == 1) {
-            return value.charAt(0);
+        // retrieve the expected data type associated with each variable from the environment
+        String[] dataTypes = new String[stmt.variables.size()];
+        for (int i = 0; i < dataTypes.length; i++) {
+            dataTypes[i] = stmt.depths[i] < 0
+                    ? globals.getDataType(stmt.variables.get(i))
+                    : stmt.locals[i].dataType;
         }
 
-        if (value.equals("\"TRUE\"")) {
-            return true;
-        }
+        output.flush();
+        Object[] values = Values.scanLine(input, stmt.variables, dataTypes);
 
-        if (value.equals("\"FALSE\"")) {
-            return false;
-        }
-
-        return value; // Treat as string if no other type matches
-    }
-
-    private boolean isValidType(Object value, String dataType) {
-        // Check if the value's type matches the expected data type
-        switch (dataType) {
-            case "INT":
-                return value instanceof Integer;
-            case "FLOAT":
-                return value instanceof Double;
-            case "CHAR":
-                return value instanceof Character;
-            case "BOOL":
-                return value instanceof Boolean;
-            case "STRING":
-                return value instanceof String;
-            default:
-                return false;
+        // Assign each value to the corresponding variable
+        for (int i = 0; i < values.length; i++) {
+            // scanLine has already checked them against the declared types
+            assignVariable(stmt.variables.get(i), stmt.depths[i], stmt.locals[i], values[i], true);
         }
+        return null;
     }
 
     @Override
@@ -252,7 +200,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 value = null;
             }
 
-            environment.assign(name, value);
+            assignVariable(name, stmt.depths[i], stmt.locals[i], value, false);
         }
         return null;
     }
@@ -262,13 +210,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if(!(value instanceof Integer)){
+            if(!stmt.typeSafe && !(value instanceof Integer)){
                 throw new RuntimeError(stmt.name, "Instance must be of type INT");
             }
         }
         String dataType = "INT";
 
-        environment.define(stmt.name, value,dataType);
+        defineVariable(stmt.name, stmt.local, stmt.redeclaration, value,dataType);
         return null;
     }
 
@@ -277,14 +225,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if(!(value instanceof Character)){
+            if(!stmt.typeSafe && !(value instanceof Character)){
                 throw new RuntimeError(stmt.name, "Instance must be of type CHAR");
             }
         }
 
         String dataType = "CHAR";
 
-        environment.define(stmt.name, value,dataType);
+        defineVariable(stmt.name, stmt.local, stmt.redeclaration, value,dataType);
         return null;
     }
 
@@ -293,13 +241,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if(!(value instanceof Double)){
+            if(!stmt.typeSafe && !(value instanceof Double)){
                 throw new RuntimeError(stmt.name, "Instance must be of type FLOAT");
             }
         }
         String dataType = "FLOAT";
 
-        environment.define(stmt.name, value, dataType);
+        defineVariable(stmt.name, stmt.local, stmt.redeclaration, value, dataType);
         return null;
     }
 
@@ -308,14 +256,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if(!(value instanceof Boolean)){
+            if(!stmt.typeSafe && !(value instanceof Boolean)){
                 throw new RuntimeError(stmt.name, "Instance must be of type BOOL");
             }
         }
 
         String dataType = "BOOL";
 
-        environment.define(stmt.name, value,dataType);
+        defineVariable(stmt.name, stmt.local, stmt.redeclaration, value,dataType);
         return null;
     }
 
@@ -324,20 +272,35 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
-            if(!(value instanceof String)){
+            if(!stmt.typeSafe && !(value instanceof String)){
                 throw new RuntimeError(stmt.name, "Instance must be of type STRING");
             }
         }
         String dataType = "STRING";
 
-        environment.define(stmt.name, value,dataType);
+        defineVariable(stmt.name, stmt.local, stmt.redeclaration, value,dataType);
         return null;
     }
 
     @Override
     public Void visitWhileStmt(code.Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
+        Loop loop = loops.computeIfAbsent(stmt, key -> new Loop());
+        if (loop.compiled != null) {
+            loop.compiled.exec(environment);
+            return null;
+        }
+
+        while (Values.isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+
+            if (++loop.iterations >= HOT_LOOP) {
+                // The compiled loop starts with the condition check, and
+                // the closures read and write the same Environment frames,
+                // so it picks up right where this iteration left off.
+                loop.compiled = new ClosureCompiler(globals, output, input).compile(stmt);
+                loop.compiled.exec(environment);
+                return null;
+            }
         }
         return null;
     }
@@ -345,97 +308,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        assignVariable(expr.name, expr.depth, expr.local, value, expr.typeSafe);
         return value;
     }
 
-    private Number getNumType(Object obj) {
-        if (obj instanceof Integer) {
-            return (int) obj;
-        }
-        if (obj instanceof Double) {
-            return (double) obj;
-        }
-        return null;
-    }
-
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        try{
-            Object left = evaluate(expr.left);
-            Object right = evaluate(expr.right);
-            Number leftVal = getNumType(left);
-            Number rightVal = getNumType(right);
-
-            switch (expr.operator.type) {
-                case NEXT_LINE:
-                    return (stringify(left) + "\n" + stringify(right));
-                case CONCAT:
-                    return stringify(left) + stringify(right);
-                case GREATER:                    
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() > rightVal.intValue();
-                    }
-                return leftVal.doubleValue() > rightVal.doubleValue();
-                case GREATER_EQUAL:
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() >= rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() >= rightVal.doubleValue();
-                case LESS:
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                    return leftVal.intValue() < rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() < rightVal.doubleValue();
-                case LESS_EQUAL:
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() <= rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() <= rightVal.doubleValue();
-                case MINUS:
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() - rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() - rightVal.doubleValue();
-                case PLUS:
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() + rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() + rightVal.doubleValue();
-                case SLASH:
-                    if (rightVal.doubleValue() == 0) {
-                        throw new RuntimeError(expr.operator, "Division by zero.");
-                    }
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() / rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() / rightVal.doubleValue();
-                case STAR:
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() * rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() * rightVal.doubleValue();       
-                case MODULO:
-                    if (rightVal.doubleValue() == 0) {
-                        throw new RuntimeError(expr.operator, "Division by zero.");
-                    }
-                    if(leftVal instanceof Integer && rightVal instanceof Integer){
-                        return leftVal.intValue() % rightVal.intValue();
-                    }
-                    return leftVal.doubleValue() % rightVal.doubleValue();      
-                case NOT_EQUAL:
-                    return !isEqual(left, right);
-                case EQUAL_EQUAL:
-                    return isEqual(left, right);
-                default:
-                    break;                        
-            }
-        } catch (NullPointerException e) {
-            throw new RuntimeError(expr.operator, "Unexpected null value encountered.");
+        if (Concatenation.isConcat(expr)) {
+            return concatenate(concatenations.computeIfAbsent(expr, Concatenation::of));
         }
 
-        // Unreachable.
-        return null;
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        return Values.binary(expr.operator, left, right);
+    }
+
+    // Appends a whole chain of & and $ to one StringBuilder, left to right,
+    // instead of building a String for every operator in it.
+    private String concatenate(Concatenation concatenation) {
+        List<Expr> operands = concatenation.operands;
+        StringBuilder text = new StringBuilder(concatenation.capacity);
+        text.append(Values.stringify(evaluate(operands.get(0))));
+        for (int i = 1; i < operands.size(); i++) {
+            if (concatenation.newlines[i - 1]) text.append('\n');
+            text.append(Values.stringify(evaluate(operands.get(i))));
+        }
+        return text.toString();
     }
 
 }
@@ -0,0 +1,530 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+// Loop-invariant code motion, run after the Optimizer and before the
+// Resolver. Inside every WHILE (and so every desugared FOR) it looks for
+// operator expressions that only read variables the loop never assigns or
+// declares, and moves each of them into a temporary declared right before
+// the loop:
+//
+//   WHILE (i < n * 2) ...   =>   BEGIN  INT $licm0 = n * 2  WHILE (i < $licm0) ...
+//
+// An expression is only moved when it is certain to produce a value of a
+// known type without a runtime error, because it is now evaluated even if
+// the loop body never runs. So every variable it reads must have been
+// declared with an initializer (and therefore never holds nil), arithmetic
+// and comparisons need number operands, and / and % need a nonzero literal
+// divisor. The temporaries' names start with '$', which no identifier can.
+class InvariantHoister implements Stmt.Visitor<Stmt> {
+    // declared type of each visible variable that always holds a value of
+    // that type, or null for one declared without an initializer
+    private final Stack<Map<String, String>> scopes = new Stack<>();
+    private int temporaries = 0;
+
+    List<Stmt> hoist(List<Stmt> statements) {
+        List<Stmt> hoisted = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            hoisted.add(statement == null ? null : statement.accept(this));
+        }
+        return hoisted;
+    }
+
+    private void declare(Token name, Expr initializer, String dataType) {
+        if (scopes.isEmpty()) return;
+        scopes.peek().put(name.lexeme, initializer != null ? dataType : null);
+    }
+
+    // The type of a variable the loop can read without it ever being nil,
+    // or null if there is no such variable in scope.
+    private String safeType(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Map<String, String> scope = scopes.get(i);
+            if (scope.containsKey(name)) return scope.get(name);
+        }
+        return null;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        List<Stmt> statements = hoist(stmt.statements);
+        scopes.pop();
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        return new Stmt.If(stmt.condition, stmt.thenBranch.accept(this), elseBranch);
+    }
+
+    @Override
+    public Stmt visitDisplayStmt(Stmt.Display stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitScanStmt(Stmt.Scan stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIntStmt(Stmt.Int stmt) {
+        declare(stmt.name, stmt.initializer, "INT");
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitCharStmt(Stmt.Char stmt) {
+        declare(stmt.name, stmt.initializer, "CHAR");
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFloatStmt(Stmt.Float stmt) {
+        declare(stmt.name, stmt.initializer, "FLOAT");
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBoolStmt(Stmt.Bool stmt) {
+        declare(stmt.name, stmt.initializer, "BOOL");
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitStringStmt(Stmt.String stmt) {
+        declare(stmt.name, stmt.initializer, "STRING");
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitMultiVarStmt(Stmt.MultiVar stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        // inner loops first, so what is invariant in both can move again
+        Stmt body = stmt.body.accept(this);
+
+        Set<String> variant = new HashSet<>();
+        Assignments assignments = new Assignments(variant);
+        stmt.condition.accept(assignments);
+        body.accept(assignments);
+
+        Loop loop = new Loop(variant);
+        Expr condition = stmt.condition.accept(loop);
+        body = body.accept(loop);
+
+        Stmt loopStmt = new Stmt.While(condition, body);
+        if (loop.hoisted.isEmpty()) return loopStmt;
+
+        List<Stmt> statements = new ArrayList<>(loop.hoisted);
+        statements.add(loopStmt);
+        return new Stmt.Block(statements);
+    }
+
+    // Collects every name a loop assigns, scans into or declares.
+    private static class Assignments implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Set<String> names;
+
+        Assignments(Set<String> names) {
+            this.names = names;
+        }
+
+        private void visit(Expr expr) {
+            if (expr != null) expr.accept(this);
+        }
+
+        private void visit(Stmt stmt) {
+            if (stmt != null) stmt.accept(this);
+        }
+
+        private void declared(Token name, Expr initializer) {
+            names.add(name.lexeme);
+            visit(initializer);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) visit(statement);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            visit(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            visit(stmt.condition);
+            visit(stmt.thenBranch);
+            visit(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitDisplayStmt(Stmt.Display stmt) {
+            visit(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitScanStmt(Stmt.Scan stmt) {
+            for (Token variable : stmt.variables) names.add(variable.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitIntStmt(Stmt.Int stmt) {
+            declared(stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitCharStmt(Stmt.Char stmt) {
+            declared(stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitFloatStmt(Stmt.Float stmt) {
+            declared(stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitBoolStmt(Stmt.Bool stmt) {
+            declared(stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitStringStmt(Stmt.String stmt) {
+            declared(stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitMultiVarStmt(Stmt.MultiVar stmt) {
+            for (Token name : stmt.names) names.add(name.lexeme);
+            for (Expr initializer : stmt.initializers) visit(initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            visit(stmt.condition);
+            visit(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            names.add(expr.name.lexeme);
+            visit(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            visit(expr.left);
+            visit(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            visit(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            visit(expr.left);
+            visit(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            visit(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+    }
+
+    // Rewrites one loop's condition and body, replacing every largest
+    // movable expression with a read of a new temporary.
+    private class Loop implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+        private final Set<String> variant;
+        final List<Stmt> hoisted = new ArrayList<>();
+
+        Loop(Set<String> variant) {
+            this.variant = variant;
+        }
+
+        private Expr rewrite(Expr expr) {
+            return expr == null ? null : expr.accept(this);
+        }
+
+        private Stmt rewrite(Stmt stmt) {
+            return stmt == null ? null : stmt.accept(this);
+        }
+
+        // Moves the expression out of the loop if it is worth it and safe,
+        // otherwise gives back null so the caller rewrites its operands.
+        private Expr hoist(Expr expr, Token operator) {
+            String type = typeOf(expr);
+            if (type == null) return null;
+
+            Token name = new Token(TokenType.IDENTIFIER, "$licm" + temporaries++, null, operator.line);
+            hoisted.add(declaration(name, expr, type));
+            return new Expr.Variable(name);
+        }
+
+        private Stmt declaration(Token name, Expr initializer, String type) {
+            switch (type) {
+                case "INT":
+                    return new Stmt.Int(name, initializer);
+                case "FLOAT":
+                    return new Stmt.Float(name, initializer);
+                case "BOOL":
+                    return new Stmt.Bool(name, initializer);
+                case "CHAR":
+                    return new Stmt.Char(name, initializer);
+                default:
+                    return new Stmt.String(name, initializer);
+            }
+        }
+
+        // The type the expression is certain to evaluate to, without a
+        // runtime error and without reading anything the loop changes, or
+        // null if there is no such guarantee.
+        private String typeOf(Expr expr) {
+            if (expr instanceof Expr.Literal) {
+                Object value = ((Expr.Literal) expr).value;
+                if (value instanceof Integer) return "INT";
+                if (value instanceof Double) return "FLOAT";
+                if (value instanceof Boolean) return "BOOL";
+                if (value instanceof Character) return "CHAR";
+                if (value instanceof String) return "STRING";
+                return null;
+            }
+
+            if (expr instanceof Expr.Variable) {
+                String name = ((Expr.Variable) expr).name.lexeme;
+                return variant.contains(name) ? null : safeType(name);
+            }
+
+            if (expr instanceof Expr.Grouping) {
+                return typeOf(((Expr.Grouping) expr).expression);
+            }
+
+            if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                String right = typeOf(unary.right);
+                if (right == null) return null;
+
+                switch (unary.operator.type) {
+                    case NOT:
+                        return "BOOL";
+                    case NEXT_LINE:
+                        return "STRING";
+                    case MINUS:
+                    case PLUS:
+                        return isNumber(right) ? right : null;
+                    default:
+                        return null;
+                }
+            }
+
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                String left = typeOf(logical.left);
+                String right = typeOf(logical.right);
+                // the result is one of the operands
+                return left != null && left.equals(right) ? left : null;
+            }
+
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                String left = typeOf(binary.left);
+                String right = typeOf(binary.right);
+                if (left == null || right == null) return null;
+
+                switch (binary.operator.type) {
+                    case CONCAT:
+                    case NEXT_LINE:
+                        return "STRING";
+                    case EQUAL_EQUAL:
+                    case NOT_EQUAL:
+                        return "BOOL";
+                    case GREATER:
+                    case GREATER_EQUAL:
+                    case LESS:
+                    case LESS_EQUAL:
+                        return isNumber(left) && isNumber(right) ? "BOOL" : null;
+                    case SLASH:
+                    case MODULO:
+                        if (!isNonZeroLiteral(binary.right)) return null;
+                        return arithmetic(left, right);
+                    case PLUS:
+                    case MINUS:
+                    case STAR:
+                        return arithmetic(left, right);
+                    default:
+                        return null;
+                }
+            }
+
+            return null;
+        }
+
+        private boolean isNumber(String type) {
+            return type.equals("INT") || type.equals("FLOAT");
+        }
+
+        private String arithmetic(String left, String right) {
+            if (!isNumber(left) || !isNumber(right)) return null;
+            return left.equals("INT") && right.equals("INT") ? "INT" : "FLOAT";
+        }
+
+        private boolean isNonZeroLiteral(Expr expr) {
+            while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping) expr).expression;
+            if (!(expr instanceof Expr.Literal)) return false;
+
+            Object value = ((Expr.Literal) expr).value;
+            return value instanceof Number && ((Number) value).doubleValue() != 0;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            List<Stmt> statements = new ArrayList<>(stmt.statements.size());
+            for (Stmt statement : stmt.statements) statements.add(rewrite(statement));
+            return new Stmt.Block(statements);
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            return new Stmt.Expression(rewrite(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt) {
+            return new Stmt.If(rewrite(stmt.condition), rewrite(stmt.thenBranch), rewrite(stmt.elseBranch));
+        }
+
+        @Override
+        public Stmt visitDisplayStmt(Stmt.Display stmt) {
+            return new Stmt.Display(rewrite(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitScanStmt(Stmt.Scan stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitIntStmt(Stmt.Int stmt) {
+            return new Stmt.Int(stmt.name, rewrite(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitCharStmt(Stmt.Char stmt) {
+            return new Stmt.Char(stmt.name, rewrite(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitFloatStmt(Stmt.Float stmt) {
+            return new Stmt.Float(stmt.name, rewrite(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitBoolStmt(Stmt.Bool stmt) {
+            return new Stmt.Bool(stmt.name, rewrite(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitStringStmt(Stmt.String stmt) {
+            return new Stmt.String(stmt.name, rewrite(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitMultiVarStmt(Stmt.MultiVar stmt) {
+            List<Expr> initializers = new ArrayList<>(stmt.initializers.size());
+            for (Expr initializer : stmt.initializers) initializers.add(rewrite(initializer));
+            return new Stmt.MultiVar(stmt.type, stmt.names, initializers);
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            return new Stmt.While(rewrite(stmt.condition), rewrite(stmt.body));
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            return new Expr.Assign(expr.name, rewrite(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            Expr hoisted = hoist(expr, expr.operator);
+            if (hoisted != null) return hoisted;
+            return new Expr.Binary(rewrite(expr.left), expr.operator, rewrite(expr.right));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(rewrite(expr.expression));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            Expr hoisted = hoist(expr, expr.operator);
+            if (hoisted != null) return hoisted;
+            return new Expr.Logical(rewrite(expr.left), expr.operator, rewrite(expr.right));
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            Expr hoisted = hoist(expr, expr.operator);
+            if (hoisted != null) return hoisted;
+            return new Expr.Unary(expr.operator, rewrite(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            return expr;
+        }
+    }
+}
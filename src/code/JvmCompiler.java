@@ -0,0 +1,899 @@
+package code;
+
+import static code.ClassFile.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates a resolved program into a JVM class with a single static method
+// and loads it as a hidden class, so the JIT compiles the script like any
+// other Java code. Every block local becomes a JVM local of its own, and
+// INT, FLOAT, BOOL and CHAR locals (the Local kinds the Resolver assigned)
+// are kept unboxed in int and double locals. Expressions are compiled to the
+// unboxed type the operand types allow; whatever is not known until runtime
+// goes through the same Values methods as the Interpreter, so the results
+// and error messages are identical.
+//
+// The generated method is run(Environment globals, Object[] constants,
+// Output output, Input input).
+// Tokens and literal values that have no JVM constant form are passed in
+// the constants array.
+class JvmCompiler implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+    private static final String ENVIRONMENT = "code/Environment";
+    private static final String VALUES = "code/Values";
+    private static final String COMPILER = "code/JvmCompiler";
+    private static final String TOKEN_TYPE = "Lcode/Token;";
+
+    // A compiled program, ready to run against a global environment.
+    static final class Script {
+        private final MethodHandle run;
+        private final Object[] constants;
+
+        private Script(MethodHandle run, Object[] constants) {
+            this.run = run;
+            this.constants = constants;
+        }
+
+        void run(Environment globals, Output output, Input input) {
+            try {
+                run.invokeExact(globals, constants, output, input);
+            } catch (RuntimeException | Error error) {
+                throw error;
+            } catch (Throwable error) {
+                // the generated code throws nothing checked
+                throw new IllegalStateException(error);
+            }
+        }
+    }
+
+    private static final int GLOBALS = 0;
+    private static final int CONSTANTS = 1;
+    private static final int OUTPUT = 2;
+    private static final int INPUT = 3;
+
+    private final ClassFile classFile = new ClassFile("code/Script");
+    private final ClassFile.Code code =
+            classFile.method("run", "(Lcode/Environment;[Ljava/lang/Object;Lcode/Output;Lcode/Input;)V");
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+    private final Map<Local, Integer> slots = new IdentityHashMap<>();
+    private int nextSlot = 4;
+
+    // Returns null if the program is too large for one JVM method.
+    Script compile(List<Stmt> statements) {
+        try {
+            compileStatements(statements);
+            code.op(RETURN, 0);
+            code.maxLocals = nextSlot;
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClass(classFile.toBytes(), true);
+            MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run",
+                    MethodType.methodType(void.class, Environment.class, Object[].class, Output.class,
+                            Input.class));
+            return new Script(run, constants.toArray());
+        } catch (ClassFile.TooLarge error) {
+            return null;
+        } catch (IllegalAccessException | NoSuchMethodException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    // Runtime support called from the generated code.
+
+    static RuntimeError error(Token token, String message) {
+        return new RuntimeError(token, message);
+    }
+
+    static int toInt(Object value, Token name, String message) {
+        if (value instanceof Integer) return (Integer) value;
+        throw new RuntimeError(name, message);
+    }
+
+    static double toFloat(Object value, Token name, String message) {
+        if (value instanceof Double) return (Double) value;
+        throw new RuntimeError(name, message);
+    }
+
+    static boolean toBool(Object value, Token name, String message) {
+        if (value instanceof Boolean) return (Boolean) value;
+        throw new RuntimeError(name, message);
+    }
+
+    static char toChar(Object value, Token name, String message) {
+        if (value instanceof Character) return (Character) value;
+        throw new RuntimeError(name, message);
+    }
+
+    static Object check(Object value, String dataType, Token name, String message) {
+        if (Values.isValidType(value, dataType)) return value;
+        throw new RuntimeError(name, message);
+    }
+
+    static Object assignGlobal(Environment globals, Token name, Object value) {
+        globals.assign(name, value);
+        return value;
+    }
+
+    static void display(Output output, Object value) {
+        output.print(Values.stringify(value));
+    }
+
+    static Object[] scan(Stmt.Scan stmt, Environment globals, Output output, Input input) {
+        String[] dataTypes = new String[stmt.variables.size()];
+        for (int i = 0; i < dataTypes.length; i++) {
+            dataTypes[i] = stmt.depths[i] < 0
+                    ? globals.getDataType(stmt.variables.get(i))
+                    : stmt.locals[i].dataType;
+        }
+        output.flush();
+        return Values.scanLine(input, stmt.variables, dataTypes);
+    }
+
+    // Code generation helpers.
+
+    private void constant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        code.local(ALOAD, CONSTANTS, 1);
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+    }
+
+    private void token(Token token) {
+        constant(token);
+        code.type(CHECKCAST, "code/Token");
+    }
+
+    private void throwError(Token token, String message) {
+        token(token);
+        code.pushString(message);
+        code.invokeStatic(COMPILER, "error", "(" + TOKEN_TYPE + "Ljava/lang/String;)Lcode/RuntimeError;");
+        code.op(ATHROW, -1);
+    }
+
+    private int slotOf(Local local) {
+        Integer slot = slots.get(local);
+        if (slot == null) {
+            slot = newSlot(size(local.kind));
+            slots.put(local, slot);
+        }
+        return slot;
+    }
+
+    // A fresh JVM local of one or two slots, for a variable or a temporary.
+    private int newSlot(int size) {
+        int slot = nextSlot;
+        nextSlot += size;
+        if (nextSlot > 0xFFFF) throw new ClassFile.TooLarge("Too many locals.");
+        return slot;
+    }
+
+    private static int size(int kind) {
+        return kind == Local.FLOAT ? 2 : 1;
+    }
+
+    private void pop(int kind) {
+        code.op(kind == Local.FLOAT ? POP2 : POP, -size(kind));
+    }
+
+    private void dup(int kind) {
+        code.op(kind == Local.FLOAT ? DUP2 : DUP, size(kind));
+    }
+
+    private void box(int kind) {
+        switch (kind) {
+            case Local.INT:
+                code.invokeStatic("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+                break;
+            case Local.FLOAT:
+                code.invokeStatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+                break;
+            case Local.BOOL:
+                code.invokeStatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+                break;
+            case Local.CHAR:
+                code.invokeStatic("java/lang/Character", "valueOf", "(C)Ljava/lang/Character;");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private int compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void compileBoxed(Expr expr) {
+        box(compile(expr));
+    }
+
+    // Leaves Values.isTruthy of the expression as a JVM int.
+    private void compileTruthy(Expr expr) {
+        int kind = compile(expr);
+        if (kind == Local.BOOL) return;
+        if (kind == Local.OBJECT) {
+            code.invokeStatic(VALUES, "isTruthy", "(Ljava/lang/Object;)Z");
+            return;
+        }
+        // any other non-null value is true
+        pop(kind);
+        code.pushInt(1);
+    }
+
+    // A whole chain of & and $ as appends to one StringBuilder, sized for
+    // its literal text plus a guess for every other operand.
+    private void concatenation(Concatenation concatenation) {
+        String builder = "java/lang/StringBuilder";
+        code.newObject(builder);
+        code.op(DUP, 1);
+        code.pushInt(concatenation.capacity);
+        code.invokeSpecial(builder, "<init>", "(I)V");
+        for (int i = 0; i < concatenation.operands.size(); i++) {
+            if (i > 0 && concatenation.newlines[i - 1]) {
+                code.pushInt('\n');
+                code.invokeVirtual(builder, "append", "(C)Ljava/lang/StringBuilder;");
+            }
+            compileBoxed(concatenation.operands.get(i));
+            code.invokeStatic(VALUES, "stringify", "(Ljava/lang/Object;)Ljava/lang/String;");
+            code.invokeVirtual(builder, "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;");
+        }
+        code.invokeVirtual(builder, "toString", "()Ljava/lang/String;");
+    }
+
+    private void compileStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            // the parser leaves a null behind for a stray END CODE
+            if (statement != null) statement.accept(this);
+        }
+    }
+
+    private static boolean isNumber(int kind) {
+        return kind == Local.INT || kind == Local.FLOAT;
+    }
+
+    // The kind of value an expression leaves on the stack, worked out the
+    // same way the visit methods below compile it.
+    private static int kindOf(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Integer) return Local.INT;
+            if (value instanceof Double) return Local.FLOAT;
+            if (value instanceof Boolean) return Local.BOOL;
+            if (value instanceof Character) return Local.CHAR;
+            return Local.OBJECT;
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            return variable.depth < 0 ? Local.OBJECT : variable.local.kind;
+        }
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            return assign.depth < 0 ? Local.OBJECT : assign.local.kind;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return kindOf(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            switch (unary.operator.type) {
+                case NOT:
+                    return Local.BOOL;
+                case MINUS:
+                case PLUS:
+                    int kind = kindOf(unary.right);
+                    return isNumber(kind) ? kind : Local.OBJECT;
+                default:
+                    return Local.OBJECT;
+            }
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case PLUS:
+                case MINUS:
+                case STAR:
+                case SLASH:
+                case MODULO:
+                    int left = kindOf(binary.left);
+                    int right = kindOf(binary.right);
+                    if (left == Local.INT && right == Local.INT) return Local.INT;
+                    if (isNumber(left) && isNumber(right)) return Local.FLOAT;
+                    return Local.OBJECT;
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                case EQUAL_EQUAL:
+                case NOT_EQUAL:
+                    return Local.BOOL;
+                default:
+                    return Local.OBJECT;
+            }
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            if (kindOf(logical.left) == Local.BOOL && kindOf(logical.right) == Local.BOOL) {
+                return Local.BOOL;
+            }
+            return Local.OBJECT;
+        }
+        return Local.OBJECT;
+    }
+
+    // Converts the value on the stack to the given kind, failing with the
+    // message if it is of any other type. A typeSafe value needs no check.
+    private void convert(int from, int to, String dataType, Token name, String message,
+                         boolean typeSafe) {
+        if (from == to && to != Local.OBJECT) return;
+
+        box(from);
+        if (to == Local.OBJECT) {
+            if (typeSafe) return;
+            code.pushString(dataType);
+            token(name);
+            code.pushString(message);
+            code.invokeStatic(COMPILER, "check", "(Ljava/lang/Object;Ljava/lang/String;"
+                    + TOKEN_TYPE + "Ljava/lang/String;)Ljava/lang/Object;");
+            return;
+        }
+
+        token(name);
+        code.pushString(message);
+        String arguments = "(Ljava/lang/Object;" + TOKEN_TYPE + "Ljava/lang/String;)";
+        switch (to) {
+            case Local.INT:
+                code.invokeStatic(COMPILER, "toInt", arguments + "I");
+                break;
+            case Local.FLOAT:
+                code.invokeStatic(COMPILER, "toFloat", arguments + "D");
+                break;
+            case Local.BOOL:
+                code.invokeStatic(COMPILER, "toBool", arguments + "Z");
+                break;
+            default:
+                code.invokeStatic(COMPILER, "toChar", arguments + "C");
+                break;
+        }
+    }
+
+    private void load(Local local) {
+        int slot = slotOf(local);
+        switch (local.kind) {
+            case Local.FLOAT:
+                code.local(DLOAD, slot, 2);
+                break;
+            case Local.OBJECT:
+                code.local(ALOAD, slot, 1);
+                break;
+            default:
+                code.local(ILOAD, slot, 1);
+                break;
+        }
+    }
+
+    private void store(Local local) {
+        int slot = slotOf(local);
+        switch (local.kind) {
+            case Local.FLOAT:
+                code.local(DSTORE, slot, -2);
+                break;
+            case Local.OBJECT:
+                code.local(ASTORE, slot, -1);
+                break;
+            default:
+                code.local(ISTORE, slot, -1);
+                break;
+        }
+    }
+
+    // Stores the value on the stack into the variable and leaves the stored
+    // value behind, of the kind kindOf() gives the assignment.
+    private void assign(Token name, int depth, Local local, int kind, boolean typeSafe) {
+        if (depth < 0) {
+            // assignGlobal() takes the value last
+            box(kind);
+            code.local(ALOAD, GLOBALS, 1);
+            code.op(SWAP, 0);
+            token(name);
+            code.op(SWAP, 0);
+            code.invokeStatic(COMPILER, "assignGlobal",
+                    "(Lcode/Environment;" + TOKEN_TYPE + "Ljava/lang/Object;)Ljava/lang/Object;");
+            return;
+        }
+
+        convert(kind, local.kind, local.dataType, name, "Input must be of type " + local.dataType,
+                typeSafe);
+        dup(local.kind);
+        store(local);
+    }
+
+    private void declaration(Token name, Expr initializer, Local local, boolean redeclaration,
+                             boolean typeSafe, String dataType) {
+        if (local == null) {
+            code.local(ALOAD, GLOBALS, 1);
+            token(name);
+        }
+
+        int kind = Local.OBJECT;
+        if (initializer == null) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            kind = compile(initializer);
+            int expected = Local.kindOf(dataType, true);
+            convert(kind, expected, dataType, name, "Instance must be of type " + dataType, typeSafe);
+            kind = expected;
+        }
+
+        if (local == null) {
+            box(kind);
+            code.pushString(dataType);
+            code.invokeVirtual(ENVIRONMENT, "define",
+                    "(" + TOKEN_TYPE + "Ljava/lang/Object;Ljava/lang/String;)V");
+        } else if (redeclaration) {
+            pop(kind);
+            throwError(name, "Runtime Error: Variable " + name.lexeme + " is already defined");
+        } else {
+            if (local.kind == Local.OBJECT) box(kind);
+            store(local);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // every local already has a JVM local of its own
+        compileStatements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        pop(compile(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFile.Label elseBranch = code.label();
+        ClassFile.Label end = code.label();
+
+        compileTruthy(stmt.condition);
+        code.jump(IFEQ, elseBranch, -1);
+        stmt.thenBranch.accept(this);
+        code.jump(GOTO, end, 0);
+        code.place(elseBranch);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitDisplayStmt(Stmt.Display stmt) {
+        code.local(ALOAD, OUTPUT, 1);
+        compileBoxed(stmt.expression);
+        code.invokeStatic(COMPILER, "display", "(Lcode/Output;Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitScanStmt(Stmt.Scan stmt) {
+        int values = newSlot(1);
+        constant(stmt);
+        code.type(CHECKCAST, "code/Stmt$Scan");
+        code.local(ALOAD, GLOBALS, 1);
+        code.local(ALOAD, OUTPUT, 1);
+        code.local(ALOAD, INPUT, 1);
+        code.invokeStatic(COMPILER, "scan",
+                "(Lcode/Stmt$Scan;Lcode/Environment;Lcode/Output;Lcode/Input;)[Ljava/lang/Object;");
+        code.local(ASTORE, values, -1);
+
+        for (int i = 0; i < stmt.variables.size(); i++) {
+            code.local(ALOAD, values, 1);
+            code.pushInt(i);
+            code.op(AALOAD, -1);
+            Local local = stmt.locals[i];
+            // scanLine has already checked them against the declared types
+            assign(stmt.variables.get(i), stmt.depths[i], local, Local.OBJECT, true);
+            pop(stmt.depths[i] < 0 ? Local.OBJECT : local.kind);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIntStmt(Stmt.Int stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe, "INT");
+        return null;
+    }
+
+    @Override
+    public Void visitCharStmt(Stmt.Char stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe, "CHAR");
+        return null;
+    }
+
+    @Override
+    public Void visitFloatStmt(Stmt.Float stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe, "FLOAT");
+        return null;
+    }
+
+    @Override
+    public Void visitBoolStmt(Stmt.Bool stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe, "BOOL");
+        return null;
+    }
+
+    @Override
+    public Void visitStringStmt(Stmt.String stmt) {
+        declaration(stmt.name, stmt.initializer, stmt.local, stmt.redeclaration, stmt.typeSafe, "STRING");
+        return null;
+    }
+
+    @Override
+    public Void visitMultiVarStmt(Stmt.MultiVar stmt) {
+        for (int i = 0; i < stmt.names.size(); i++) {
+            Expr initializer = stmt.initializers.get(i);
+            int kind = Local.OBJECT;
+            if (initializer == null) {
+                code.op(ACONST_NULL, 1);
+            } else {
+                kind = compile(initializer);
+            }
+
+            assign(stmt.names.get(i), stmt.depths[i], stmt.locals[i], kind, false);
+            pop(stmt.depths[i] < 0 ? Local.OBJECT : stmt.locals[i].kind);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassFile.Label condition = code.label();
+        ClassFile.Label end = code.label();
+
+        code.place(condition);
+        compileTruthy(stmt.condition);
+        code.jump(IFEQ, end, -1);
+        stmt.body.accept(this);
+        code.jump(GOTO, condition, 0);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        int kind = compile(expr.value);
+        assign(expr.name, expr.depth, expr.local, kind, expr.typeSafe);
+        return kindOf(expr);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        Concatenation concatenation = Concatenation.of(expr);
+        if (concatenation != null) {
+            concatenation(concatenation);
+            return Local.OBJECT;
+        }
+
+        int left = kindOf(expr.left);
+        int right = kindOf(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case PLUS:
+            case MINUS:
+            case STAR:
+            case SLASH:
+            case MODULO:
+                if (isNumber(left) && isNumber(right)) {
+                    return arithmetic(expr, left, right);
+                }
+                break;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                if (isNumber(left) && isNumber(right)) {
+                    comparison(expr, left, right);
+                    return Local.BOOL;
+                }
+                break;
+            case EQUAL_EQUAL:
+            case NOT_EQUAL:
+                if (left == right && left != Local.OBJECT) {
+                    equality(expr, left);
+                    return Local.BOOL;
+                }
+                break;
+            default:
+                break;
+        }
+
+        // types only known at runtime, the Values operation decides
+        if (operator.type == TokenType.EQUAL_EQUAL || operator.type == TokenType.NOT_EQUAL) {
+            compileBoxed(expr.left);
+            compileBoxed(expr.right);
+            code.invokeStatic(VALUES, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+            if (operator.type == TokenType.NOT_EQUAL) {
+                code.pushInt(1);
+                code.op(IXOR, -1);
+            }
+            return Local.BOOL;
+        }
+
+        token(operator);
+        compileBoxed(expr.left);
+        compileBoxed(expr.right);
+        String arguments = "(" + TOKEN_TYPE + "Ljava/lang/Object;Ljava/lang/Object;)";
+        switch (operator.type) {
+            case PLUS:
+                code.invokeStatic(VALUES, "add", arguments + "Ljava/lang/Object;");
+                return Local.OBJECT;
+            case MINUS:
+                code.invokeStatic(VALUES, "subtract", arguments + "Ljava/lang/Object;");
+                return Local.OBJECT;
+            case STAR:
+                code.invokeStatic(VALUES, "multiply", arguments + "Ljava/lang/Object;");
+                return Local.OBJECT;
+            case SLASH:
+                code.invokeStatic(VALUES, "divide", arguments + "Ljava/lang/Object;");
+                return Local.OBJECT;
+            case MODULO:
+                code.invokeStatic(VALUES, "modulo", arguments + "Ljava/lang/Object;");
+                return Local.OBJECT;
+            case GREATER:
+                code.invokeStatic(VALUES, "greater", arguments + "Z");
+                return Local.BOOL;
+            case GREATER_EQUAL:
+                code.invokeStatic(VALUES, "greaterEqual", arguments + "Z");
+                return Local.BOOL;
+            case LESS:
+                code.invokeStatic(VALUES, "less", arguments + "Z");
+                return Local.BOOL;
+            case LESS_EQUAL:
+                code.invokeStatic(VALUES, "lessEqual", arguments + "Z");
+                return Local.BOOL;
+            default:
+                code.invokeStatic(VALUES, "binary", arguments + "Ljava/lang/Object;");
+                return Local.OBJECT;
+        }
+    }
+
+    // Both operands are numbers: INT with INT stays INT, any other mix is
+    // done in double like Values does.
+    private int arithmetic(Expr.Binary expr, int left, int right) {
+        int kind = left == Local.INT && right == Local.INT ? Local.INT : Local.FLOAT;
+        compileNumber(expr.left, kind);
+        compileNumber(expr.right, kind);
+
+        TokenType type = expr.operator.type;
+        if (type == TokenType.SLASH || type == TokenType.MODULO) {
+            ClassFile.Label nonzero = code.label();
+            if (kind == Local.INT) {
+                code.op(DUP, 1);
+                code.jump(IFNE, nonzero, -1);
+            } else {
+                code.op(DUP2, 2);
+                code.pushDouble(0);
+                code.op(DCMPL, -3);
+                code.jump(IFNE, nonzero, -1);
+            }
+            throwError(expr.operator, "Division by zero.");
+            code.place(nonzero);
+        }
+
+        boolean isInt = kind == Local.INT;
+        switch (type) {
+            case PLUS:
+                code.op(isInt ? IADD : DADD, isInt ? -1 : -2);
+                break;
+            case MINUS:
+                code.op(isInt ? ISUB : DSUB, isInt ? -1 : -2);
+                break;
+            case STAR:
+                code.op(isInt ? IMUL : DMUL, isInt ? -1 : -2);
+                break;
+            case SLASH:
+                code.op(isInt ? IDIV : DDIV, isInt ? -1 : -2);
+                break;
+            default:
+                code.op(isInt ? IREM : DREM, isInt ? -1 : -2);
+                break;
+        }
+        return kind;
+    }
+
+    private void compileNumber(Expr expr, int kind) {
+        int actual = compile(expr);
+        if (actual == Local.INT && kind == Local.FLOAT) code.op(I2D, 1);
+    }
+
+    private void comparison(Expr.Binary expr, int left, int right) {
+        int kind = left == Local.INT && right == Local.INT ? Local.INT : Local.FLOAT;
+        compileNumber(expr.left, kind);
+        compileNumber(expr.right, kind);
+
+        // jump to isTrue when the comparison holds; a NaN operand makes
+        // DCMPL give -1 and DCMPG give 1, so it always falls through
+        ClassFile.Label isTrue = code.label();
+        if (kind == Local.INT) {
+            switch (expr.operator.type) {
+                case GREATER:
+                    code.jump(IF_ICMPGT, isTrue, -2);
+                    break;
+                case GREATER_EQUAL:
+                    code.jump(IF_ICMPGE, isTrue, -2);
+                    break;
+                case LESS:
+                    code.jump(IF_ICMPLT, isTrue, -2);
+                    break;
+                default:
+                    code.jump(IF_ICMPLE, isTrue, -2);
+                    break;
+            }
+        } else {
+            switch (expr.operator.type) {
+                case GREATER:
+                    code.op(DCMPL, -3);
+                    code.jump(IFGT, isTrue, -1);
+                    break;
+                case GREATER_EQUAL:
+                    code.op(DCMPL, -3);
+                    code.jump(IFGE, isTrue, -1);
+                    break;
+                case LESS:
+                    code.op(DCMPG, -3);
+                    code.jump(IFLT, isTrue, -1);
+                    break;
+                default:
+                    code.op(DCMPG, -3);
+                    code.jump(IFLE, isTrue, -1);
+                    break;
+            }
+        }
+        pushBoolean(isTrue);
+    }
+
+    // Both operands have the same primitive kind. FLOATs are compared the
+    // way Double.equals does.
+    private void equality(Expr.Binary expr, int kind) {
+        compile(expr.left);
+        compile(expr.right);
+
+        boolean equal = expr.operator.type == TokenType.EQUAL_EQUAL;
+        ClassFile.Label isTrue = code.label();
+        if (kind == Local.FLOAT) {
+            code.invokeStatic("java/lang/Double", "compare", "(DD)I");
+            code.jump(equal ? IFEQ : IFNE, isTrue, -1);
+        } else {
+            code.jump(equal ? IF_ICMPEQ : IF_ICMPNE, isTrue, -2);
+        }
+        pushBoolean(isTrue);
+    }
+
+    // Pushes 0, or 1 when coming from a jump to isTrue.
+    private void pushBoolean(ClassFile.Label isTrue) {
+        ClassFile.Label end = code.label();
+        code.pushInt(0);
+        code.jump(GOTO, end, 0);
+        code.place(isTrue);
+        code.pushInt(1);
+        code.place(end);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value instanceof Integer) {
+            code.pushInt((Integer) value);
+            return Local.INT;
+        }
+        if (value instanceof Double) {
+            code.pushDouble((Double) value);
+            return Local.FLOAT;
+        }
+        if (value instanceof Boolean) {
+            code.pushInt((Boolean) value ? 1 : 0);
+            return Local.BOOL;
+        }
+        if (value instanceof Character) {
+            code.pushInt((Character) value);
+            return Local.CHAR;
+        }
+        if (value == null) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            constant(value);
+        }
+        return Local.OBJECT;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        // AND and OR give back the operand that decided them
+        int kind = kindOf(expr);
+        ClassFile.Label end = code.label();
+        boolean or = expr.operator.type == TokenType.OR;
+
+        if (kind == Local.BOOL) {
+            compile(expr.left);
+            code.op(DUP, 1);
+            code.jump(or ? IFNE : IFEQ, end, -1);
+            code.op(POP, -1);
+            compile(expr.right);
+        } else {
+            compileBoxed(expr.left);
+            code.op(DUP, 1);
+            code.invokeStatic(VALUES, "isTruthy", "(Ljava/lang/Object;)Z");
+            code.jump(or ? IFNE : IFEQ, end, -1);
+            code.op(POP, -1);
+            compileBoxed(expr.right);
+        }
+        code.place(end);
+        return kind;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        int kind = kindOf(expr);
+        switch (expr.operator.type) {
+            case NOT:
+                compileTruthy(expr.right);
+                code.pushInt(1);
+                code.op(IXOR, -1);
+                return Local.BOOL;
+            case MINUS:
+                if (kind == Local.INT) {
+                    compile(expr.right);
+                    code.op(INEG, 0);
+                    return kind;
+                }
+                if (kind == Local.FLOAT) {
+                    compile(expr.right);
+                    code.op(DNEG, 0);
+                    return kind;
+                }
+                break;
+            case PLUS:
+                if (kind != Local.OBJECT) {
+                    compile(expr.right);
+                    return kind;
+                }
+                break;
+            default:
+                break;
+        }
+
+        token(expr.operator);
+        compileBoxed(expr.right);
+        code.invokeStatic(VALUES, "unary", "(" + TOKEN_TYPE + "Ljava/lang/Object;)Ljava/lang/Object;");
+        return Local.OBJECT;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0) {
+            code.local(ALOAD, GLOBALS, 1);
+            token(expr.name);
+            code.invokeVirtual(ENVIRONMENT, "get", "(" + TOKEN_TYPE + ")Ljava/lang/Object;");
+            return Local.OBJECT;
+        }
+
+        load(expr.local);
+        return expr.local.kind;
+    }
+}
@@ -0,0 +1,35 @@
+package code;
+
+import java.util.List;
+
+// Execution engine that compiles the whole program to JVM bytecode with the
+// JvmCompiler and runs the generated class. A program too large for a single
+// JVM method runs on the closures instead, against the same globals.
+class JvmInterpreter {
+    private final Environment globals = new Environment();
+    private final Output output;
+    private final Input input;
+    private final Diagnostics diagnostics;
+
+    JvmInterpreter(Output output, Input input, Diagnostics diagnostics) {
+        this.output = output;
+        this.input = input;
+        this.diagnostics = diagnostics;
+    }
+
+    void interpret(List<Stmt> statements) {
+        JvmCompiler.Script script = new JvmCompiler().compile(statements);
+        try {
+            if (script != null) {
+                script.run(globals, output, input);
+            } else {
+                new ClosureCompiler(globals, output, input).compile(statements).exec(globals);
+            }
+        } catch (RuntimeError error) {
+            output.flush();
+            diagnostics.runtimeError(error);
+        } finally {
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package code;
+
+// A block-local variable as laid out by the Resolver. The declared type
+// fixes which typed array of the block's Environment holds the variable, so
+// INT, FLOAT, BOOL and CHAR values are stored unboxed. A primitive declared
+// without an initializer has to read as null until it is first assigned,
+// so it is kept in the OBJECT array next to the STRINGs.
+final class Local {
+    static final int INT = 0;
+    static final int FLOAT = 1;
+    static final int BOOL = 2;
+    static final int CHAR = 3;
+    static final int OBJECT = 4;
+    static final int KINDS = 5;
+
+    final String dataType;
+    final Class<?> type;
+    final int kind;
+    // false when declared without an initializer, so it may still be nil
+    final boolean initialized;
+    // position in the array for this kind
+    final int index;
+    // position among all the block's variables, in declaration order
+    final int slot;
+
+    Local(String dataType, boolean initialized, int kind, int index, int slot) {
+        this.dataType = dataType;
+        this.type = typeOf(dataType);
+        this.kind = kind;
+        this.initialized = initialized;
+        this.index = index;
+        this.slot = slot;
+    }
+
+    static int kindOf(String dataType, boolean initialized) {
+        if (!initialized) return OBJECT;
+
+        switch (dataType) {
+            case "INT":
+                return INT;
+            case "FLOAT":
+                return FLOAT;
+            case "BOOL":
+                return BOOL;
+            case "CHAR":
+                return CHAR;
+            default:
+                return OBJECT;
+        }
+    }
+
+    private static Class<?> typeOf(String dataType) {
+        switch (dataType) {
+            case "INT":
+                return Integer.class;
+            case "FLOAT":
+                return Double.class;
+            case "BOOL":
+                return Boolean.class;
+            case "CHAR":
+                return Character.class;
+            default:
+                return String.class;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package code;
+
+// Instruction set of the bytecode VM. Operands follow the opcode in the code
+// array: slots, constant indexes and counts are two bytes, jump offsets are
+// four bytes and type tags are a single byte.
+final class OpCode {
+
+    private OpCode() {}
+
+    static final byte CONSTANT = 0;        // u16 constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    static final byte GET_LOCAL = 5;       // u16 slot
+    static final byte SET_LOCAL = 6;       // u16 slot, u8 type
+    static final byte DEFINE_LOCAL = 7;    // u16 slot
+    static final byte REDEFINE = 8;        // declaration of an already defined name
+    static final byte GET_GLOBAL = 9;      // u16 name constant
+    static final byte SET_GLOBAL = 10;     // u16 name constant
+    static final byte DEFINE_GLOBAL = 11;  // u16 name constant, u8 type
+    static final byte CHECK_TYPE = 12;     // u8 type, checks a declaration's initializer
+
+    static final byte ADD = 13;
+    static final byte SUBTRACT = 14;
+    static final byte MULTIPLY = 15;
+    static final byte DIVIDE = 16;
+    static final byte MODULO = 17;
+    static final byte GREATER = 18;
+    static final byte GREATER_EQUAL = 19;
+    static final byte LESS = 20;
+    static final byte LESS_EQUAL = 21;
+    static final byte EQUAL = 22;
+    static final byte NOT_EQUAL = 23;
+    static final byte CONCAT = 24;
+    static final byte NEXT_LINE = 25;
+
+    static final byte NEGATE = 26;
+    static final byte NOT = 27;
+    static final byte UNARY = 28;          // unary '+' and '$', handled by Values.unary
+
+    static final byte DISPLAY = 29;
+    static final byte SCAN = 30;           // u16 variable list constant, then per variable: u8 kind, u16 slot/name, u8 type
+
+    static final byte JUMP = 31;           // i32 forward offset
+    static final byte JUMP_IF_FALSE = 32;  // i32 forward offset, pops the condition
+    static final byte JUMP_IF_FALSE_OR_POP = 33;  // i32 forward offset, AND: keeps a falsy left operand
+    static final byte JUMP_IF_TRUE_OR_POP = 34;   // i32 forward offset, OR: keeps a truthy left operand
+    static final byte LOOP = 35;           // i32 backward offset
+    static final byte RETURN = 36;
+
+    // Superinstructions for the most common statement shapes. The first two
+    // quicken themselves into an INT form the first time they see INT
+    // operands, and turn back if that stops being true.
+    static final byte INC_LOCAL = 37;      // u16 slot, u16 constant index, u8 type: "x = x + c" or "x = x - c"
+    static final byte INC_LOCAL_INT = 38;
+    static final byte COMPARE_LOCAL_JUMP = 39;  // u16 slot, u16 constant index, u8 comparison opcode, i32 forward offset if false
+    static final byte COMPARE_LOCAL_INT_JUMP = 40;
+    static final byte CONCAT_DISPLAY = 41; // u8 count, count - 1 u8 separators (CONCAT or NEXT_LINE)
+    static final byte CONCAT_N = 42;       // same operands as CONCAT_DISPLAY, pushes the text
+
+    static final byte[] FUSED = {
+            INC_LOCAL, INC_LOCAL_INT, COMPARE_LOCAL_JUMP, COMPARE_LOCAL_INT_JUMP, CONCAT_DISPLAY, CONCAT_N
+    };
+    static final String[] FUSED_NAMES = {
+            "INC_LOCAL", "INC_LOCAL_INT", "COMPARE_LOCAL_JUMP", "COMPARE_LOCAL_INT_JUMP", "CONCAT_DISPLAY",
+            "CONCAT_N"
+    };
+
+    // Declared data types, encoded as the u8 type operand.
+    static final byte TYPE_INT = 0;
+    static final byte TYPE_CHAR = 1;
+    static final byte TYPE_BOOL = 2;
+    static final byte TYPE_FLOAT = 3;
+    static final byte TYPE_STRING = 4;
+
+    static final String[] TYPE_NAMES = { "INT", "CHAR", "BOOL", "FLOAT", "STRING" };
+
+    // SCAN target kinds.
+    static final byte SCAN_LOCAL = 0;
+    static final byte SCAN_GLOBAL = 1;
+}
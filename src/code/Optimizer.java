@@ -0,0 +1,192 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs between the Parser and the Resolver and rewrites the tree in place of
+// the original. Operators whose operands are all literals are evaluated once
+// here with the same Values code the engines use, IF statements with a
+// literal condition are replaced by the branch that would run, and WHILE
+// loops whose condition is a false literal are dropped. An operation that
+// would fail at runtime, such as a division by zero, is left alone so the
+// error is still reported when and where it happens.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            // the parser leaves a null behind for a stray END CODE
+            Stmt result = statement == null ? null : statement.accept(this);
+            if (result != null || statement == null) optimized.add(result);
+        }
+        return optimized;
+    }
+
+    // For places that need a statement even if the one they had is gone.
+    private Stmt optimize(Stmt stmt) {
+        Stmt result = stmt.accept(this);
+        return result != null ? result : new Stmt.Block(new ArrayList<>());
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private static boolean isConstant(Expr expr) {
+        if (!(expr instanceof Expr.Literal)) return false;
+
+        // the parser also wraps tokens in literals, those are left as they are
+        Object value = ((Expr.Literal) expr).value;
+        return value == null || value instanceof Integer || value instanceof Double
+                || value instanceof Boolean || value instanceof Character
+                || value instanceof String;
+    }
+
+    private static Object valueOf(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimize(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (isConstant(condition)) {
+            if (Values.isTruthy(valueOf(condition))) return stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) return stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, optimize(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitDisplayStmt(Stmt.Display stmt) {
+        return new Stmt.Display(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitScanStmt(Stmt.Scan stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIntStmt(Stmt.Int stmt) {
+        return new Stmt.Int(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitCharStmt(Stmt.Char stmt) {
+        return new Stmt.Char(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitFloatStmt(Stmt.Float stmt) {
+        return new Stmt.Float(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitBoolStmt(Stmt.Bool stmt) {
+        return new Stmt.Bool(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitStringStmt(Stmt.String stmt) {
+        return new Stmt.String(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitMultiVarStmt(Stmt.MultiVar stmt) {
+        List<Expr> initializers = new ArrayList<>(stmt.initializers.size());
+        for (Expr initializer : stmt.initializers) {
+            initializers.add(optimize(initializer));
+        }
+        return new Stmt.MultiVar(stmt.type, stmt.names, initializers);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (isConstant(condition) && !Values.isTruthy(valueOf(condition))) {
+            return null;
+        }
+        return new Stmt.While(condition, optimize(stmt.body));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (isConstant(left) && isConstant(right)) {
+            try {
+                return new Expr.Literal(Values.binary(expr.operator, valueOf(left), valueOf(right)));
+            } catch (RuntimeError error) {
+                // leave it to fail at runtime
+            }
+        }
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (isConstant(expression)) return expression;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // AND and OR give back one of their operands, so a literal left side
+        // decides which one without evaluating anything
+        if (isConstant(left)) {
+            boolean truthy = Values.isTruthy(valueOf(left));
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (isConstant(right)) {
+            try {
+                return new Expr.Literal(Values.unary(expr.operator, valueOf(right)));
+            } catch (RuntimeError error) {
+                // leave it to fail at runtime
+            }
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
@@ -0,0 +1,112 @@
+package code;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+// Where DISPLAY text goes. Every engine prints through one of these instead
+// of System.out, and flushes it when the program ends, before a SCAN reads
+// input and before a runtime error is reported, so the text still comes out
+// in the order the program produced it.
+interface Output {
+    int DEFAULT_BUFFER_SIZE = 8192;
+
+    void print(String text);
+
+    void flush();
+
+    // Standard output, buffered so a DISPLAY costs a copy instead of a
+    // trip through the synchronized PrintStream.
+    static Output standard() {
+        return new Buffered(Channels.newChannel(System.out), Charset.defaultCharset(), DEFAULT_BUFFER_SIZE);
+    }
+
+    // Collects the text into chars and encodes it to the channel, such as a
+    // FileChannel, only when the buffer is full or on flush.
+    final class Buffered implements Output {
+        private final WritableByteChannel channel;
+        private final CharsetEncoder encoder;
+        private final CharBuffer chars;
+        private final ByteBuffer bytes;
+
+        Buffered(WritableByteChannel channel, Charset charset, int bufferSize) {
+            if (bufferSize < 1) throw new IllegalArgumentException("Buffer size must be positive.");
+            this.channel = channel;
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars = CharBuffer.allocate(bufferSize);
+            bytes = ByteBuffer.allocate((int) Math.ceil(bufferSize * (double) encoder.maxBytesPerChar()));
+        }
+
+        @Override
+        public void print(String text) {
+            int start = 0;
+            while (start < text.length()) {
+                if (!chars.hasRemaining()) drain();
+                int end = Math.min(text.length(), start + chars.remaining());
+                chars.put(text, start, end);
+                start = end;
+            }
+        }
+
+        @Override
+        public void flush() {
+            drain();
+        }
+
+        // Encodes and writes everything buffered. A high surrogate whose
+        // pair has not been printed yet stays behind for the next print.
+        private void drain() {
+            chars.flip();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, false);
+                write();
+            } while (result.isOverflow());
+            chars.compact();
+        }
+
+        private void write() {
+            bytes.flip();
+            try {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+            bytes.clear();
+        }
+    }
+
+    // Keeps the text in memory, for embedding the language and reading
+    // what the program displayed afterwards.
+    final class Memory implements Output {
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public void print(String text) {
+            this.text.append(text);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        String text() {
+            return text.toString();
+        }
+
+        void clear() {
+            text.setLength(0);
+        }
+    }
+}
@@ -8,22 +8,25 @@ import static code.TokenType.*;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    private final TokenStream tokens;
+    private final Diagnostics diagnostics;
     private boolean executableCodeStart = false;
     private int current = 0;
+    private int ends = 0;
     // private boolean BEGINflag = false;
     // private boolean ENDflag = false;
     
 
-    Parser(List<Token> tokens) {
+    Parser(TokenStream tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
-        //printTokens();
-        testBeginEnd();
-    }
+        this.diagnostics = diagnostics;
 
-    public void printTokens() {
-        for (Token i : tokens) {
-            System.out.println(i);
+        //starts with begin
+        TokenType first = tokens.type(0);
+        if(first==CODE){
+            //nothing, error already throws in expression
+        } else if(first!=BEGIN){
+            diagnostics.error(0, "CODE must start with 'BEGIN'");
         }
     }
 
@@ -33,65 +36,41 @@ public class Parser {
             statements.addAll(declaration());
         }
 
+        testEnd();
         return statements;
     }
 
-    // testing for begin and end code
-    private void testBeginEnd(){
-        int size = tokens.size();
-        Token test0 = tokens.get(0);
-        int flag = -1;
-        TokenType begin1 = BEGIN;
-        TokenType code1 = CODE;
-        TokenType end1 =END;
+    // The BEGIN and END counts, checked on every token as the parser moves
+    // past it rather than in a pass over all the tokens up front. After a
+    // second END nothing more is counted.
+    private void testBeginEnd(int index, TokenType type) {
+        if (ends >= 2) return;
 
-        //starts with begin
-        if(test0.type==code1){
-            //nothing, error already throws in expression
-        } else if(test0.type!=begin1){
-            Code.error(0, "CODE must start with 'BEGIN'");
-        }
-
-
-        //counting begins and ends
-        int countEnd = 0;
-        int count = 0;
-        for (Token i : tokens) {
-            if(count>=1 && i.type==begin1){
-                Code.error(0, "Cannot have multiple instances of 'BEGIN'");
-            } if(i.type==end1){
-                countEnd++;
-                if(countEnd>=2){
-                    Code.error(size-2, "Cannot have multiple instances of 'END'");
-                    //System.out.println(countEnd);
-                    break;
-                }
-            } count++; 
+        if (index >= 1 && type == BEGIN) {
+            diagnostics.error(0, "Cannot have multiple instances of 'BEGIN'");
+        }
+        if (type == END) {
+            ends++;
         }
-    
-        //code out of bounds
-        //Token last = tokens.get(size-1); //null EOF
-        Token scnlast = tokens.get(size-2); // end code section
-        //System.out.println(scnlast.toString());
-        if(scnlast.type!=code1 && scnlast.type!=end1){
-            Code.error(size-1, "Text out of scope");
-        } 
-    }
-
-    private Expr expression() {
-        return assignment();
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
+    // The checks that need the whole program, once the parser is at EOF.
+    private void testEnd() {
+        int size = current + 1;
+        if (ends >= 2) {
+            diagnostics.error(size-2, "Cannot have multiple instances of 'END'");
+        }
 
-        while (match(NOT_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+        //code out of bounds
+        if (current == 0) return;
+        TokenType last = tokens.type(current - 1); // end code section
+        if(last!=CODE && last!=END){
+            diagnostics.error(size-1, "Text out of scope");
         }
+    }
 
-        return expr;
+    private Expr expression() {
+        return assignment();
     }
 
     private List<Stmt> declaration() {
@@ -130,7 +109,8 @@ public class Parser {
     }
 
     private Stmt singleVarDeclaration(String datatype){
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -163,7 +143,7 @@ public class Parser {
         TokenType tokenType;
 
         if (executableCodeStart) {
-            Code.error(current, "Cannot declare variables after executable code.");
+            diagnostics.error(current, "Cannot declare variables after executable code.");
         }
         
         //saves the datatype declared
@@ -190,7 +170,8 @@ public class Parser {
 
         //adds every variable name and initializers to their respective arraylists
         do {
-            Token name = consume(IDENTIFIER, "Expect variable name.");
+            consume(IDENTIFIER, "Expect variable name.");
+            Token name = previous();
 
             Expr initializer = null;
             if (match(EQUAL)) {
@@ -243,7 +224,7 @@ public class Parser {
                 executableCodeStart = true;
                 return displayStatement();
             }
-            Code.error(previous(), "Expect ':' after 'DISPLAY'.");
+            diagnostics.error(previous(), "Expect ':' after 'DISPLAY'.");
         }
 
         if (match(SCAN)) {
@@ -251,7 +232,7 @@ public class Parser {
                 executableCodeStart = true;
                 return scanStatement();
             }
-            Code.error(previous(), "Expect ':' after 'SCAN'.");            
+            diagnostics.error(previous(), "Expect ':' after 'SCAN'.");            
         }
 
         if (match(WHILE)) {
@@ -270,7 +251,7 @@ public class Parser {
             if(match(CODE)){
 
                 // if(BEGINflag) {
-                //     Code.error(Scanner.getLine(), "Cannot allow multiple BEGIN CODE and END CODE declarations");
+                //     diagnostics.error(Scanner.getLine(), "Cannot allow multiple BEGIN CODE and END CODE declarations");
                 //     return null;
                 // }
 
@@ -288,7 +269,7 @@ public class Parser {
                 executableCodeStart = false;
 
                 // if(ENDflag) {
-                //     Code.error(Scanner.getLine(), "Cannot allow multiple BEGIN CODE and END CODE declarations");
+                //     diagnostics.error(Scanner.getLine(), "Cannot allow multiple BEGIN CODE and END CODE declarations");
                 //     return null;
                 // }
                 return null;
@@ -330,7 +311,7 @@ public class Parser {
 
     private boolean checkNext(TokenType type) {
         if (isAtEnd()) return false;
-        return tokens.get(current + 1).type == type;
+        return tokens.type(current + 1) == type;
     }
 
     private code.Stmt displayStatement() {
@@ -359,7 +340,8 @@ public class Parser {
         List<Token> variables = new ArrayList<>();
 
         do {
-            variables.add(consume(TokenType.IDENTIFIER, "Expect variable name."));
+            consume(TokenType.IDENTIFIER, "Expect variable name.");
+            variables.add(previous());
         } while (match(TokenType.COMMA));
 
         return new Stmt.Scan(variables);
@@ -475,7 +457,7 @@ public class Parser {
     }
 
     private Expr assignment() {
-        Expr expr = or();
+        Expr expr = binary(LOGICAL_OR);
 
         if (match(EQUAL)) {
             Token equals = previous();
@@ -492,75 +474,72 @@ public class Parser {
         return expr;
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-
-    private Expr comparison() {
-        Expr expr = term();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS, CONCAT,NEXT_LINE)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr factor() {
+    // Binary operators are parsed by precedence climbing, looking each
+    // operator up in PRECEDENCE by its type. The trees are the ones the
+    // grammar's levels give: every operator is left associative, and '$'
+    // takes the factor level, where it was always matched first.
+    private static final int LOGICAL_OR = 1;
+    private static final int LOGICAL_AND = 2;
+    private static final int EQUALITY = 3;
+    private static final int COMPARISON = 4;
+    private static final int TERM = 5;
+    private static final int FACTOR = 6;
+
+    // 0 for a type that is not a binary operator
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCE[OR.ordinal()] = LOGICAL_OR;
+        PRECEDENCE[AND.ordinal()] = LOGICAL_AND;
+        PRECEDENCE[NOT_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[EQUAL_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[GREATER.ordinal()] = COMPARISON;
+        PRECEDENCE[GREATER_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[LESS.ordinal()] = COMPARISON;
+        PRECEDENCE[LESS_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[MINUS.ordinal()] = TERM;
+        PRECEDENCE[PLUS.ordinal()] = TERM;
+        PRECEDENCE[CONCAT.ordinal()] = TERM;
+        PRECEDENCE[SLASH.ordinal()] = FACTOR;
+        PRECEDENCE[STAR.ordinal()] = FACTOR;
+        PRECEDENCE[MODULO.ordinal()] = FACTOR;
+        PRECEDENCE[NEXT_LINE.ordinal()] = FACTOR;
+    }
+
+    // An operand followed by every operator binding at least as tightly
+    // as the given precedence.
+    private Expr binary(int precedence) {
         Expr expr = unary();
 
-        while (match(SLASH, STAR, MODULO, NEXT_LINE)) {
+        for (;;) {
+            TokenType type = tokens.type(current);
+            int operatorPrecedence = PRECEDENCE[type.ordinal()];
+            if (operatorPrecedence == 0 || operatorPrecedence < precedence) return expr;
+
+            advance();
             Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+            Expr right = binary(operatorPrecedence + 1);
+            if (type == OR || type == AND) {
+                expr = new Expr.Logical(expr, operator, right);
+            } else {
+                expr = new Expr.Binary(expr, operator, right);
+            }
         }
-
-        return expr;
     }
 
     private Expr unary() {
-        if (match(NOT, MINUS, PLUS, NEXT_LINE)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+        switch (tokens.type(current)) {
+            case NOT:
+            case MINUS:
+            case PLUS:
+            case NEXT_LINE:
+                advance();
+                Token operator = previous();
+                Expr right = unary();
+                return new Expr.Unary(operator, right);
+            default:
+                return primary();
         }
-
-        return primary();
     }
 
     private Expr primary() {
@@ -568,11 +547,11 @@ public class Parser {
         if (match(TRUE)) return new Expr.Literal(true);
         if (match(NIL)) return new Expr.Literal(null);
 
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+        if (match(NUMBER) || match(STRING)) {
+            return new Expr.Literal(tokens.literal(current - 1));
         }
 
-        if (match(INT_LITERAL, CHAR_LITERAL, BOOL_LITERAL, FLOAT_LITERAL, STRING_LITERAL, ESCAPE)) {
+        if (matchLiteral()) {
 
             if (check(NEXT_LINE) && !isAtEnd()) {
                 //the newline token $
@@ -581,15 +560,14 @@ public class Parser {
                 //if the newline $ is in the middle of a string, 
                 //it will be treated as a binary operation for 2 strings
                 if (!isAtEnd()) {
-                    Token nextToken = peek();
-                    return new Expr.Binary(new Expr.Literal(previous().getLiteral()),
+                    return new Expr.Binary(new Expr.Literal(tokens.literal(current - 1)),
                             new Token(NEXT_LINE, null, "\n", -1), primary());
                 } else {
                     //if the newline $ is at the end of a string
                     return new Expr.Literal(new Token(NEXT_LINE, null, null, -1));
                 }
             } else {
-                return new Expr.Literal(previous().getLiteral());
+                return new Expr.Literal(tokens.literal(current - 1));
             }
         }        
 
@@ -597,7 +575,7 @@ public class Parser {
             return new Expr.Literal("\n");
         }
 
-        if(previous().type.equals(NEXT_LINE)){
+        if(tokens.type(current - 1).equals(NEXT_LINE)){
             return new Expr.Literal("");
         }
 
@@ -614,48 +592,69 @@ public class Parser {
         throw error(peek(), "Expect expression.");
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
 
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private boolean matchLiteral() {
+        switch (tokens.type(current)) {
+            case INT_LITERAL:
+            case CHAR_LITERAL:
+            case BOOL_LITERAL:
+            case FLOAT_LITERAL:
+            case STRING_LITERAL:
+            case ESCAPE:
+                advance();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+    private void advance() {
+        if (isAtEnd()) return;
+
+        testBeginEnd(current, tokens.type(current));
+        current++;
+        // previous() is as far back as the parser looks
+        tokens.release(current - 1);
     }
 
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
+    // Tokens are only built for the syntax tree and error messages.
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
-        Code.error(token, message);
+        diagnostics.error(token, message);
         return new ParseError();
     }
 
@@ -663,7 +662,7 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case BEGIN:
                 case INT_KEYWORD:
                 case CHAR_KEYWORD:
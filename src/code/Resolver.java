@@ -0,0 +1,247 @@
+package code;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Runs between the Parser and the Interpreter. Every declaration inside a
+// block gets a Local in that block's frame, typed by its declaration, and
+// every variable use is annotated with how many frames up its declaration
+// lives (depth) and which Local it is. Names not declared in any enclosing
+// block stay at depth -1 and are looked up by name in the global environment.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Scope {
+        final Map<String, Local> locals = new HashMap<>();
+        // number of variables of each Local kind
+        final int[] layout = new int[Local.KINDS];
+    }
+
+    private final Stack<Scope> scopes = new Stack<>();
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        // the parser leaves a null behind for a stray END CODE
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.push(new Scope());
+    }
+
+    private void endScope() {
+        scopes.pop();
+    }
+
+    private Local declare(Token name, String dataType, boolean initialized) {
+        if (scopes.isEmpty()) return null;
+
+        Scope scope = scopes.peek();
+        Local local = scope.locals.get(name.lexeme);
+        if (local == null) {
+            int kind = Local.kindOf(dataType, initialized);
+            local = new Local(dataType, initialized, kind, scope.layout[kind]++, scope.locals.size());
+            scope.locals.put(name.lexeme, local);
+        }
+        return local;
+    }
+
+    private boolean isDeclared(Token name) {
+        return !scopes.isEmpty() && scopes.peek().locals.containsKey(name.lexeme);
+    }
+
+    // the depth of the innermost scope declaring the name, or -1 for a global
+    private int depthOf(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).locals.containsKey(name.lexeme)) {
+                return scopes.size() - 1 - i;
+            }
+        }
+        return -1;
+    }
+
+    private Local localAt(int depth, Token name) {
+        if (depth < 0) return null;
+        return scopes.get(scopes.size() - 1 - depth).locals.get(name.lexeme);
+    }
+
+    private static boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Int || statement instanceof Stmt.Char
+                    || statement instanceof Stmt.Float || statement instanceof Stmt.Bool
+                    || statement instanceof Stmt.String) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Local declareVariable(Token name, Expr initializer, String dataType) {
+        // the initializer is resolved before the name is in scope, so
+        // "INT x = x" still refers to an outer x
+        if (initializer != null) {
+            resolve(initializer);
+        }
+        return declare(name, dataType, initializer != null);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // A block that declares nothing, such as most loop bodies, gets no
+        // frame: slotCount stays 0 and its statements resolve against the
+        // enclosing scope.
+        if (!declaresVariables(stmt.statements)) {
+            resolve(stmt.statements);
+            return null;
+        }
+
+        beginScope();
+        resolve(stmt.statements);
+        stmt.slotCount = scopes.peek().locals.size();
+        stmt.layout = scopes.peek().layout;
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitDisplayStmt(Stmt.Display stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitScanStmt(Stmt.Scan stmt) {
+        stmt.depths = new int[stmt.variables.size()];
+        stmt.locals = new Local[stmt.variables.size()];
+        for (int i = 0; i < stmt.variables.size(); i++) {
+            stmt.depths[i] = depthOf(stmt.variables.get(i));
+            stmt.locals[i] = localAt(stmt.depths[i], stmt.variables.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIntStmt(Stmt.Int stmt) {
+        stmt.redeclaration = isDeclared(stmt.name);
+        stmt.local = declareVariable(stmt.name, stmt.initializer, "INT");
+        return null;
+    }
+
+    @Override
+    public Void visitCharStmt(Stmt.Char stmt) {
+        stmt.redeclaration = isDeclared(stmt.name);
+        stmt.local = declareVariable(stmt.name, stmt.initializer, "CHAR");
+        return null;
+    }
+
+    @Override
+    public Void visitFloatStmt(Stmt.Float stmt) {
+        stmt.redeclaration = isDeclared(stmt.name);
+        stmt.local = declareVariable(stmt.name, stmt.initializer, "FLOAT");
+        return null;
+    }
+
+    @Override
+    public Void visitBoolStmt(Stmt.Bool stmt) {
+        stmt.redeclaration = isDeclared(stmt.name);
+        stmt.local = declareVariable(stmt.name, stmt.initializer, "BOOL");
+        return null;
+    }
+
+    @Override
+    public Void visitStringStmt(Stmt.String stmt) {
+        stmt.redeclaration = isDeclared(stmt.name);
+        stmt.local = declareVariable(stmt.name, stmt.initializer, "STRING");
+        return null;
+    }
+
+    @Override
+    public Void visitMultiVarStmt(Stmt.MultiVar stmt) {
+        stmt.depths = new int[stmt.names.size()];
+        stmt.locals = new Local[stmt.names.size()];
+        for (int i = 0; i < stmt.names.size(); i++) {
+            Expr initializer = stmt.initializers.get(i);
+            if (initializer != null) resolve(initializer);
+
+            stmt.depths[i] = depthOf(stmt.names.get(i));
+            stmt.locals[i] = localAt(stmt.depths[i], stmt.names.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        expr.depth = depthOf(expr.name);
+        expr.local = localAt(expr.depth, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        expr.depth = depthOf(expr.name);
+        expr.local = localAt(expr.depth, expr.name);
+        return null;
+    }
+}
@@ -1,22 +1,31 @@
 package code;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static code.TokenType.*;
 
-class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();   
+class Scanner implements TokenSource {
+    private final SourceReader source;
+    private final Diagnostics diagnostics;
+    private final TokenStream tokens = new TokenStream(this);
+    private final SymbolTable symbols;
     private int start = 0;
     private int current = 0;
     // private int line = 1;
-    private static int line;
+    private int line;
 
     private static final Map<String, TokenType> keywords;
     private static final List<Character> charas = new ArrayList<>();
+    // charas as a set, for the escape check
+    private static final BitSet escapable = new BitSet();
+    // the keywords spelled with letters, by length, for matching them
+    // against the source without making a String first
+    private static final String[][] keywordText = new String[8][];
+    private static final TokenType[][] keywordType = new TokenType[8][];
 
     //characters
     static {
@@ -67,21 +76,54 @@ class Scanner {
         keywords.put("BOOL",  BOOL_KEYWORD);
         keywords.put("FLOAT",  FLOAT_KEYWORD);
         keywords.put("STRING",  STRING_KEYWORD);
+
+        for (char c : charas) {
+            escapable.set(c);
+        }
+        for (int length = 0; length < keywordText.length; length++) {
+            List<String> text = new ArrayList<>();
+            List<TokenType> types = new ArrayList<>();
+            for (Map.Entry<String, TokenType> keyword : keywords.entrySet()) {
+                String word = keyword.getKey();
+                if (word.length() == length && Character.isLetter(word.charAt(0))) {
+                    text.add(word);
+                    types.add(keyword.getValue());
+                }
+            }
+            keywordText[length] = text.toArray(new String[0]);
+            keywordType[length] = types.toArray(new TokenType[0]);
+        }
     }
 
-    Scanner(String source) {
+    Scanner(String source, Diagnostics diagnostics) {
+        this(SourceReader.of(source), new SymbolTable(), diagnostics);
+    }
+
+    Scanner(SourceReader source, SymbolTable symbols, Diagnostics diagnostics) {
         this.source = source;
+        this.symbols = symbols;
+        this.diagnostics = diagnostics;
     }
 
-    List<Token> scanTokens() {
-        while (!isAtEnd()) {
+    // The tokens, scanned as they are read.
+    TokenStream scanTokens() {
+        return tokens;
+    }
+
+    @Override
+    public void next() {
+        int scanned = tokens.end();
+        while (tokens.end() == scanned) {
+            if (isAtEnd()) {
+                tokens.add(EOF, null, null, line);
+                return;
+            }
+
             // We are at the beginning of the next lexeme.
             start = current;
+            source.release(start);
             scanToken();
         }
-
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
     }
 
     private void scanToken() {
@@ -144,7 +186,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Code.error(line, "Unexpected character.");
+                    diagnostics.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -160,7 +202,7 @@ class Scanner {
             advance();
             
             if(peek() !=']') {
-                Code.error(line, "Invalid escape character");
+                diagnostics.error(line, "Invalid escape character");
                 return;
             }
             
@@ -173,21 +215,38 @@ class Scanner {
         char value = source.charAt(start + 1);
 
         //if the character inside the [] is in the List of characters 
-        if(charas.contains(value)){
+        if(escapable.get(value)){
             addToken(ESCAPE, value);
             return;
         }
 
-        Code.error(line, "Invalid Escape Character.");
+        diagnostics.error(line, "Invalid Escape Character.");
     }
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        TokenType type = keyword();
+        if (type == null) {
+            int symbol = symbols.intern(source, start, current);
+            tokens.add(IDENTIFIER, symbols.name(symbol), null, line, symbol);
+        } else {
+            tokens.add(type, null, null, line);
+        }
+    }
+
+    private TokenType keyword() {
+        int length = current - start;
+        if (length >= keywordText.length) return null;
+
+        String[] candidates = keywordText[length];
+        char first = source.charAt(start);
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].charAt(0) == first && source.regionMatches(start, current, candidates[i])) {
+                return keywordType[length][i];
+            }
+        }
+        return null;
     }
 
     private void number() {
@@ -216,7 +275,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Code.error(line, "Unterminated character.");
+            diagnostics.error(line, "Unterminated character.");
             return;
         }
 
@@ -225,7 +284,7 @@ class Scanner {
 
         // Check if the character literal is of valid length
         if (current - start > 3) {
-            Code.error(line, "Invalid character input: Character literal must contain exactly one character.");
+            diagnostics.error(line, "Invalid character input: Character literal must contain exactly one character.");
             return;
         }
 
@@ -234,7 +293,7 @@ class Scanner {
 
         // Check if the character literal contains exactly one character
         if (value.length() != 1) {
-            Code.error(line, "Invalid character input: Character literal must contain exactly one character.");
+            diagnostics.error(line, "Invalid character input: Character literal must contain exactly one character.");
             return;
         }
 
@@ -258,7 +317,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Code.error(line, "Unterminated string.");
+            diagnostics.error(line, "Unterminated string.");
             return;
         }
 
@@ -291,7 +350,7 @@ class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (source.isAtEnd(current + 1)) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -310,7 +369,7 @@ class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return source.isAtEnd(current);
     }
 
     private char advance() {
@@ -322,8 +381,11 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        // no String for a token whose text is the fixed text of its type
+        String fixed = TokenStream.fixedLexeme(type);
+        String text = fixed != null && source.regionMatches(start, current, fixed)
+                ? null : source.substring(start, current);
+        tokens.add(type, text, literal, line);
     }
 
     public static Map<String, TokenType> getKeywords() {
@@ -334,7 +396,7 @@ class Scanner {
         return charas;
     }
 
-    public static int getLine() {
+    public int getLine() {
         return line;
     }
 
@@ -0,0 +1,183 @@
+package code;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Compiled scripts kept in a directory between runs, so a script that has
+// not changed since it was last run skips the Scanner, Parser, Optimizer
+// and InvariantHoister and only goes through the Resolver and TypeChecker
+// again. A file is named by the SHA-256 of the script's bytes, the charset
+// they are read in and a hash of the interpreter's own classes, so an
+// edited script or a rebuilt interpreter never finds an old tree. Only
+// scripts that compiled without errors are kept. Each file carries a
+// CRC-32 of its tree, and a file that fails it or cannot be read is
+// compiled around as if it were not there, then replaced.
+final class ScriptCache {
+    // Changed whenever the file format written here or by TreeCodec
+    // changes. Changes to the tree or the passes before the cache are
+    // picked up by the hash of the interpreter's classes in the key.
+    static final int VERSION = 2;
+
+    private static final int MAGIC = 0x434f4445; // "CODE"
+    // magic, version and the CRC-32 of the rest of the file
+    static final int HEADER_SIZE = 12;
+
+    private final Path directory;
+
+    ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // Loaded, and the classes hashed, on the first script compiled through
+    // the cache rather than at startup. null when the classes could not be
+    // read, and then nothing is cached.
+    private static final class Build {
+        static final String HASH = build();
+    }
+
+    Compilation compile(Path script, Charset charset, SymbolTable symbols, Diagnostics diagnostics)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(script)) {
+            if (Build.HASH == null || channel.size() > Integer.MAX_VALUE) {
+                return Compilation.of(SourceReader.of(script, charset), symbols, diagnostics);
+            }
+
+            // hashed and compiled from the same mapping, so the tree kept is
+            // the one of the bytes it is filed under
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Path file = directory.resolve(key(bytes.duplicate(), charset) + ".ast");
+
+            Compilation compilation = load(file, symbols, diagnostics);
+            if (compilation != null) return compilation;
+
+            compilation = Compilation.of(SourceReader.of(bytes, charset), symbols, diagnostics);
+            if (compilation.succeeded()) store(file, compilation);
+            return compilation;
+        }
+    }
+
+    private static String key(ByteBuffer bytes, Charset charset) {
+        MessageDigest digest = sha256();
+        digest.update((VERSION + " " + Build.HASH + " " + charset.name() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        digest.update(bytes);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // The SHA-256 of the interpreter itself: the jar it was loaded from, or
+    // the names and bytes of the class files in its package directory, so
+    // any rebuild that changes a class starts a fresh set of entries. The
+    // checks under test are built to a directory of their own and are not
+    // part of it.
+    private static String build() {
+        try {
+            Path location = Path.of(Code.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            MessageDigest digest = sha256();
+            if (Files.isRegularFile(location)) {
+                digest.update(Files.readAllBytes(location));
+            } else {
+                List<Path> classes;
+                try (Stream<Path> files = Files.list(location.resolve("code"))) {
+                    classes = files.filter(file -> file.toString().endsWith(".class")).sorted().toList();
+                }
+                for (Path file : classes) {
+                    digest.update((file.getFileName() + "\n").getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(file));
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | URISyntaxException | RuntimeException error) {
+            return null;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    // The Resolver runs inside the try as well, since a damaged tree can
+    // still decode into one it cannot make sense of.
+    private static Compilation load(Path file, SymbolTable symbols, Diagnostics diagnostics) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            int checksum = in.readInt();
+            if (checksum != checksum(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE)) return null;
+            boolean displays = in.readBoolean();
+            List<Stmt> statements = TreeCodec.read(in, symbols);
+            if (in.read() != -1) return null;
+            return Compilation.resolve(displays, statements, diagnostics);
+        } catch (IOException | RuntimeException | StackOverflowError error) {
+            // not cached yet, or a damaged file the compile will replace,
+            // however the damage shows
+            return null;
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    // Written to a file of its own and then renamed into place, so
+    // another run reading the same script never sees half a tree. Not
+    // being able to write the cache does not stop the script from running.
+    private void store(Path file, Compilation compilation) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, "script", ".tmp");
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream tree = new DataOutputStream(body);
+            tree.writeBoolean(compilation.displays);
+            TreeCodec.write(compilation.statements, tree);
+            byte[] bytes = body.toByteArray();
+            try (OutputStream stream = Files.newOutputStream(temporary)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(checksum(bytes, 0, bytes.length));
+                out.write(bytes);
+                out.flush();
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException error) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException error) {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package code;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// The text the Scanner reads, pulled from a Reader through a sliding window
+// of chars instead of held as one String. Positions are absolute offsets in
+// the source, as they were into the String, and only the chars from the
+// start of the current token on are kept, so lexing starts as soon as the
+// first chars arrive and a large source is never in memory twice.
+final class SourceReader {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private char[] buffer;
+    // absolute position of buffer[0]
+    private int offset = 0;
+    private int length = 0;
+    // chars before this position are no longer needed
+    private int released = 0;
+    private boolean ended = false;
+
+    SourceReader(Reader reader, int bufferSize) {
+        this.reader = reader;
+        buffer = new char[bufferSize];
+    }
+
+    static SourceReader of(String source) {
+        return new SourceReader(new StringReader(source),
+                Math.max(16, Math.min(source.length(), DEFAULT_BUFFER_SIZE)));
+    }
+
+    // Decodes the file straight out of a read-only mapping of it. A file
+    // too large to map in one piece is read through a buffered Reader.
+    static SourceReader of(Path path, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return new SourceReader(Files.newBufferedReader(path, charset), DEFAULT_BUFFER_SIZE);
+            }
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), charset);
+        }
+    }
+
+    // Decodes the bytes from their position on as they are needed.
+    static SourceReader of(ByteBuffer bytes, Charset charset) {
+        return new SourceReader(new MappedReader(bytes, charset), DEFAULT_BUFFER_SIZE);
+    }
+
+    char charAt(int position) {
+        if (!available(position)) throw new IndexOutOfBoundsException("Position " + position);
+        return buffer[position - offset];
+    }
+
+    boolean isAtEnd(int position) {
+        return !available(position);
+    }
+
+    String substring(int from, int to) {
+        if (to > from && !available(to - 1)) throw new IndexOutOfBoundsException("Position " + to);
+        return new String(buffer, from - offset, to - from);
+    }
+
+    // Whether the chars from "from" to "to" are the text, without making a
+    // String of them.
+    boolean regionMatches(int from, int to, String text) {
+        if (to - from != text.length()) return false;
+        if (to > from && !available(to - 1)) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer[from - offset + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // String.hashCode of the chars from "from" to "to".
+    int hash(int from, int to) {
+        if (to > from && !available(to - 1)) throw new IndexOutOfBoundsException("Position " + to);
+        int hash = 0;
+        for (int i = from - offset; i < to - offset; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash;
+    }
+
+    // The Scanner calls this at the start of every token.
+    void release(int position) {
+        released = position;
+    }
+
+    // Reads until the char at the position is in the buffer, or the
+    // source ends first.
+    private boolean available(int position) {
+        while (position - offset >= length) {
+            if (ended) return false;
+            fill();
+        }
+        return true;
+    }
+
+    private void fill() {
+        // two free chars, so a decoder always has room for a surrogate pair
+        if (buffer.length - length < 2) {
+            int keep = offset + length - released;
+            if (keep > buffer.length / 2) {
+                // a token longer than half the window, such as a long string
+                char[] grown = new char[buffer.length * 2];
+                System.arraycopy(buffer, released - offset, grown, 0, keep);
+                buffer = grown;
+            } else {
+                System.arraycopy(buffer, released - offset, buffer, 0, keep);
+            }
+            offset = released;
+            length = keep;
+        }
+
+        try {
+            int read = reader.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                ended = true;
+                reader.close();
+            } else {
+                length += read;
+            }
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    // A Reader decoding the bytes of a mapped file as they are asked for.
+    private static final class MappedReader extends Reader {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private boolean flushed = false;
+
+        MappedReader(ByteBuffer bytes, Charset charset) {
+            this.bytes = bytes;
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public int read(char[] chars, int off, int len) {
+            if (flushed) return -1;
+            if (len == 0) return 0;
+
+            CharBuffer out = CharBuffer.wrap(chars, off, len);
+            CoderResult result = decoder.decode(bytes, out, true);
+            if (result.isUnderflow() && !flushed) {
+                flushed = decoder.flush(out).isUnderflow();
+            }
+            return out.position() - off;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -28,6 +28,9 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+
+    int slotCount;
+    int[] layout;
   }
   static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -80,6 +83,9 @@ abstract class Stmt {
     }
 
     final List <Token> variables;
+
+    int[] depths;
+    Local[] locals;
   }
   static class Int extends Stmt {
     Int(Token name, Expr initializer) {
@@ -94,6 +100,10 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    Local local;
+    boolean redeclaration;
+    boolean typeSafe;
   }
   static class Char extends Stmt {
     Char(Token name, Expr initializer) {
@@ -108,6 +118,10 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    Local local;
+    boolean redeclaration;
+    boolean typeSafe;
   }
   static class Float extends Stmt {
     Float(Token name, Expr initializer) {
@@ -122,6 +136,10 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    Local local;
+    boolean redeclaration;
+    boolean typeSafe;
   }
   static class Bool extends Stmt {
     Bool(Token name, Expr initializer) {
@@ -136,6 +154,10 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    Local local;
+    boolean redeclaration;
+    boolean typeSafe;
   }
   static class String extends Stmt {
     String(Token name, Expr initializer) {
@@ -150,6 +172,10 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+
+    Local local;
+    boolean redeclaration;
+    boolean typeSafe;
   }
   static class MultiVar extends Stmt {
     MultiVar(String type, List<Token> names, List<Expr> initializers) {
@@ -166,6 +192,9 @@ abstract class Stmt {
     final String type;
     final List<Token> names;
     final List<Expr> initializers;
+
+    int[] depths;
+    Local[] locals;
   }
   static class While extends Stmt {
     While(Expr condition, Stmt body) {
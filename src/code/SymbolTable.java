@@ -0,0 +1,81 @@
+package code;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// The identifier names of a program, each kept as a single String and
+// numbered in the order they are first seen. The Scanner looks a name up by
+// its characters in the source, so a name seen before costs no allocation,
+// and gives every IDENTIFIER token the name's number, which the global
+// Environment indexes its variables by. Globals outlive one compilation in
+// the REPL, so every line it runs is scanned with the same table.
+final class SymbolTable {
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int[] ids = new int[64];
+    // the names by number
+    private String[] symbols = new String[32];
+    private int count = 0;
+
+    // The number of the name spelled by the chars from "from" to "to".
+    int intern(SourceReader source, int from, int to) {
+        int hash = source.hash(from, to);
+        int mask = names.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            String name = names[i];
+            if (name == null) return add(i, source.substring(from, to), hash);
+            if (hashes[i] == hash && source.regionMatches(from, to, name)) return ids[i];
+        }
+    }
+
+    // The number of a name that is already a String, such as one read
+    // back from the ScriptCache.
+    int intern(String name) {
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            if (names[i] == null) return add(i, name, hash);
+            if (hashes[i] == hash && names[i].equals(name)) return ids[i];
+        }
+    }
+
+    private int add(int slot, String name, int hash) {
+        if (count == symbols.length) symbols = Arrays.copyOf(symbols, count * 2);
+        symbols[count] = name;
+        names[slot] = name;
+        hashes[slot] = hash;
+        ids[slot] = count;
+        if (++count * 2 > names.length) grow();
+        return count - 1;
+    }
+
+    String name(int symbol) {
+        return symbols[Objects.checkIndex(symbol, count)];
+    }
+
+    int size() {
+        return count;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        int[] oldIds = ids;
+        names = new String[oldNames.length * 2];
+        hashes = new int[oldNames.length * 2];
+        ids = new int[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int j = 0; j < oldNames.length; j++) {
+            if (oldNames[j] == null) continue;
+            int i = spread(oldHashes[j]) & mask;
+            while (names[i] != null) i = (i + 1) & mask;
+            names[i] = oldNames[j];
+            hashes[i] = oldHashes[j];
+            ids[i] = oldIds[j];
+        }
+    }
+}
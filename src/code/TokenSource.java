@@ -0,0 +1,10 @@
+package code;
+
+// Where a TokenStream gets its tokens from. The Scanner is one: it lexes
+// the next token only when the Parser reaches the end of what has been
+// scanned so far, so lexing and parsing take turns over the source.
+interface TokenSource {
+    // Scans until at least one more token has been added to the stream.
+    // Not called again once EOF has been added.
+    void next();
+}
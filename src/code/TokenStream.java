@@ -0,0 +1,156 @@
+package code;
+
+import java.util.Map;
+
+// The Scanner's tokens as parallel arrays instead of a list of Token
+// objects: the type and line of every token, and a lexeme and literal only
+// where there is one. Punctuation and keywords, most of a program, store no
+// lexeme at all since it is the fixed text of their type. The Parser reads
+// the arrays by index and only builds a Token for the ones the syntax tree
+// keeps, such as operators and variable names. An identifier also has the
+// SymbolTable number of its name.
+//
+// Tokens are pulled from the TokenSource as they are asked for, and like
+// the chars of a SourceReader only those from the last released index on
+// are kept, so the Parser works in a small window over the program.
+// Indexes are still the absolute position of the token in the program.
+final class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+    // the text of every token of the type, or null when it varies
+    private static final String[] FIXED = new String[TYPES.length];
+
+    static {
+        String[][] punctuation = {
+                {"LEFT_PAREN", "("}, {"RIGHT_PAREN", ")"}, {"COMMA", ","}, {"DOT", "."},
+                {"MINUS", "-"}, {"PLUS", "+"}, {"SLASH", "/"}, {"STAR", "*"},
+                {"MODULO", "%"}, {"CONCAT", "&"}, {"NEXT_LINE", "$"}, {"COLON", ":"},
+                {"SEMICOLON", ";"}, {"EQUAL_EQUAL", "=="}, {"NOT_EQUAL", "<>"}, {"EQUAL", "="},
+                {"GREATER", ">"}, {"GREATER_EQUAL", ">="}, {"LESS", "<"}, {"LESS_EQUAL", "<="},
+                {"EOF", ""},
+        };
+        for (String[] entry : punctuation) {
+            FIXED[TokenType.valueOf(entry[0]).ordinal()] = entry[1];
+        }
+        for (Map.Entry<String, TokenType> keyword : Scanner.getKeywords().entrySet()) {
+            FIXED[keyword.getValue().ordinal()] = keyword.getKey();
+        }
+    }
+
+    private final TokenSource source;
+    private byte[] types = new byte[256];
+    private int[] lines = new int[256];
+    private String[] lexemes = new String[256];
+    private Object[] literals = new Object[256];
+    private int[] symbols = new int[256];
+    // absolute index of the token in types[0]
+    private int offset = 0;
+    private int length = 0;
+    // tokens before this index are no longer needed
+    private int released = 0;
+    private boolean ended = false;
+    // the types that have been scanned, released or not
+    private final boolean[] seen = new boolean[TYPES.length];
+
+    TokenStream(TokenSource source) {
+        this.source = source;
+    }
+
+    // The fixed text of the type, or null if its tokens differ.
+    static String fixedLexeme(TokenType type) {
+        return FIXED[type.ordinal()];
+    }
+
+    // A null lexeme stands for the fixed text of the type.
+    void add(TokenType type, String lexeme, Object literal, int line) {
+        add(type, lexeme, literal, line, -1);
+    }
+
+    void add(TokenType type, String lexeme, Object literal, int line, int symbol) {
+        if (length == types.length) makeRoom();
+        types[length] = (byte) type.ordinal();
+        lines[length] = line;
+        lexemes[length] = lexeme;
+        literals[length] = literal;
+        symbols[length] = symbol;
+        length++;
+        seen[type.ordinal()] = true;
+        if (type == TokenType.EOF) ended = true;
+    }
+
+    // The index the next token added will have.
+    int end() {
+        return offset + length;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[slot(index)]];
+    }
+
+    int line(int index) {
+        return lines[slot(index)];
+    }
+
+    String lexeme(int index) {
+        int slot = slot(index);
+        String lexeme = lexemes[slot];
+        return lexeme != null ? lexeme : FIXED[types[slot]];
+    }
+
+    Object literal(int index) {
+        return literals[slot(index)];
+    }
+
+    // Whether a token of the type has been scanned so far.
+    boolean contains(TokenType type) {
+        return seen[type.ordinal()];
+    }
+
+    Token token(int index) {
+        int slot = slot(index);
+        return new Token(type(index), lexeme(index), literals[slot], lines[slot], symbols[slot]);
+    }
+
+    // The Parser calls this as it moves on; it never looks back further
+    // than the token before the current one.
+    void release(int index) {
+        released = Math.max(released, index);
+    }
+
+    // Where the token is in the arrays, scanning up to it first.
+    private int slot(int index) {
+        if (index < released) throw new IndexOutOfBoundsException("Token " + index + " was released");
+        while (index - offset >= length) {
+            if (ended) throw new IndexOutOfBoundsException("Token " + index + " is past EOF");
+            source.next();
+        }
+        return index - offset;
+    }
+
+    // Moves the tokens still needed to the front of the arrays, in new
+    // ones twice the size when they fill more than half of them.
+    private void makeRoom() {
+        int keep = offset + length - released;
+        int from = released - offset;
+        if (keep > types.length / 2) {
+            int capacity = types.length * 2;
+            types = move(types, new byte[capacity], from, keep);
+            lines = move(lines, new int[capacity], from, keep);
+            lexemes = move(lexemes, new String[capacity], from, keep);
+            literals = move(literals, new Object[capacity], from, keep);
+            symbols = move(symbols, new int[capacity], from, keep);
+        } else {
+            move(types, types, from, keep);
+            move(lines, lines, from, keep);
+            move(lexemes, lexemes, from, keep);
+            move(literals, literals, from, keep);
+            move(symbols, symbols, from, keep);
+        }
+        offset = released;
+        length = keep;
+    }
+
+    private static <T> T move(T array, T fresh, int from, int count) {
+        System.arraycopy(array, from, fresh, 0, count);
+        return fresh;
+    }
+}
@@ -0,0 +1,541 @@
+package code;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The optimized syntax tree of a program in a compact binary form, for the
+// ScriptCache. Every node is a tag byte followed by its fields. A token is
+// its type and flags in one byte, with no text when it is the fixed text of
+// the type, and its line as the difference from the token before. Counts
+// are variable-length, and each distinct String is written once and
+// referred to by number after that. Only what the Parser, Optimizer and
+// InvariantHoister produce is kept: the Resolver and TypeChecker
+// annotations are made again when the tree is read back.
+final class TreeCodec {
+    private static final int NULL = 0;
+
+    // Stmt tags
+    private static final int BLOCK = 1;
+    private static final int EXPRESSION = 2;
+    private static final int IF = 3;
+    private static final int DISPLAY = 4;
+    private static final int SCAN = 5;
+    private static final int INT = 6;
+    private static final int CHAR = 7;
+    private static final int FLOAT = 8;
+    private static final int BOOL = 9;
+    private static final int STRING = 10;
+    private static final int MULTI_VAR = 11;
+    private static final int WHILE = 12;
+
+    // Expr tags
+    private static final int ASSIGN = 1;
+    private static final int BINARY = 2;
+    private static final int GROUPING = 3;
+    private static final int LITERAL = 4;
+    private static final int LOGICAL = 5;
+    private static final int UNARY = 6;
+    private static final int VARIABLE = 7;
+
+    // Literal value tags
+    private static final int VALUE_TRUE = 1;
+    private static final int VALUE_FALSE = 2;
+    private static final int VALUE_INT = 3;
+    private static final int VALUE_FLOAT = 4;
+    private static final int VALUE_CHAR = 5;
+    private static final int VALUE_STRING = 6;
+    private static final int VALUE_TOKEN = 7;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // token flags, above the type's ordinal
+    private static final int HAS_SYMBOL = 0x80;
+    private static final int FIXED_LEXEME = 0x40;
+    private static final int TYPE_MASK = 0x3f;
+
+    static {
+        if (TYPES.length > TYPE_MASK + 1) throw new AssertionError("Too many token types");
+    }
+
+    private TreeCodec() {}
+
+    static void write(List<Stmt> statements, DataOutputStream out) throws IOException {
+        new Writer(out).statements(statements);
+    }
+
+    // Identifiers get their numbers from the symbols, as if the program
+    // had just been scanned with them. The stream has to know how many
+    // bytes are left, as one over a byte array does, so that counts can be
+    // checked against it.
+    static List<Stmt> read(DataInputStream in, SymbolTable symbols) throws IOException {
+        return new Reader(in, symbols).statements();
+    }
+
+    private static final class Writer implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private int line = 0;
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        // The visitors cannot throw IOException, so it comes out of them
+        // unchecked.
+        void statements(List<Stmt> statements) throws IOException {
+            try {
+                count(statements.size());
+                for (Stmt statement : statements) {
+                    statement(statement);
+                }
+            } catch (UncheckedIOException error) {
+                throw error.getCause();
+            }
+        }
+
+        private void statement(Stmt stmt) {
+            if (stmt == null) {
+                tag(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void expression(Expr expr) {
+            if (expr == null) {
+                tag(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void tokens(List<Token> tokens) {
+            count(tokens.size());
+            for (Token token : tokens) {
+                token(token);
+            }
+        }
+
+        private void token(Token token) {
+            boolean fixed = token.lexeme != null && token.lexeme.equals(TokenStream.fixedLexeme(token.type));
+            tag(token.type.ordinal() | (token.symbol >= 0 ? HAS_SYMBOL : 0) | (fixed ? FIXED_LEXEME : 0));
+            if (!fixed) string(token.lexeme);
+            value(token.literal);
+            // zigzag, so going back a line is small too
+            int delta = token.line - line;
+            count((delta << 1) ^ (delta >> 31));
+            line = token.line;
+        }
+
+        private void value(Object value) {
+            try {
+                if (value == null) {
+                    out.writeByte(NULL);
+                } else if (value instanceof Boolean) {
+                    out.writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+                } else if (value instanceof Integer) {
+                    out.writeByte(VALUE_INT);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Double) {
+                    out.writeByte(VALUE_FLOAT);
+                    out.writeDouble((Double) value);
+                } else if (value instanceof Character) {
+                    out.writeByte(VALUE_CHAR);
+                    out.writeChar((Character) value);
+                } else if (value instanceof String) {
+                    out.writeByte(VALUE_STRING);
+                    string((String) value);
+                } else {
+                    out.writeByte(VALUE_TOKEN);
+                    token((Token) value);
+                }
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        // 0 for null, 1 and the text for a String not written before, and
+        // 2 and up for the ones that were, in the order they were.
+        private void string(String text) {
+            if (text == null) {
+                count(0);
+                return;
+            }
+            Integer index = strings.get(text);
+            if (index != null) {
+                count(index + 2);
+                return;
+            }
+            strings.put(text, strings.size());
+            count(1);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            count(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void tag(int tag) {
+            try {
+                out.writeByte(tag);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        // A non-negative int in as few bytes as it takes, seven bits each.
+        private void count(int value) {
+            while ((value & ~0x7f) != 0) {
+                tag((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            tag(value);
+        }
+
+        private void declaration(int tag, Token name, Expr initializer) {
+            tag(tag);
+            token(name);
+            expression(initializer);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            count(stmt.statements.size());
+            for (Stmt statement : stmt.statements) {
+                statement(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            expression(stmt.condition);
+            statement(stmt.thenBranch);
+            statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitDisplayStmt(Stmt.Display stmt) {
+            tag(DISPLAY);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitScanStmt(Stmt.Scan stmt) {
+            tag(SCAN);
+            tokens(stmt.variables);
+            return null;
+        }
+
+        @Override
+        public Void visitIntStmt(Stmt.Int stmt) {
+            declaration(INT, stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitCharStmt(Stmt.Char stmt) {
+            declaration(CHAR, stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitFloatStmt(Stmt.Float stmt) {
+            declaration(FLOAT, stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitBoolStmt(Stmt.Bool stmt) {
+            declaration(BOOL, stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitStringStmt(Stmt.String stmt) {
+            declaration(STRING, stmt.name, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitMultiVarStmt(Stmt.MultiVar stmt) {
+            tag(MULTI_VAR);
+            statement(stmt.type);
+            tokens(stmt.names);
+            count(stmt.initializers.size());
+            for (Expr initializer : stmt.initializers) {
+                expression(initializer);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            expression(stmt.condition);
+            statement(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            return null;
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private final SymbolTable symbols;
+        private final List<String> strings = new ArrayList<>();
+        private int line = 0;
+
+        Reader(DataInputStream in, SymbolTable symbols) {
+            this.in = in;
+            this.symbols = symbols;
+        }
+
+        List<Stmt> statements() throws IOException {
+            int count = size();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private Stmt statement() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case BLOCK:
+                    return new Stmt.Block(statements());
+                case EXPRESSION:
+                    return new Stmt.Expression(expression());
+                case IF: {
+                    Expr condition = expression();
+                    Stmt thenBranch = statement();
+                    return new Stmt.If(condition, thenBranch, statement());
+                }
+                case DISPLAY:
+                    return new Stmt.Display(expression());
+                case SCAN:
+                    return new Stmt.Scan(tokens());
+                case INT:
+                    return new Stmt.Int(token(), expression());
+                case CHAR:
+                    return new Stmt.Char(token(), expression());
+                case FLOAT:
+                    return new Stmt.Float(token(), expression());
+                case BOOL:
+                    return new Stmt.Bool(token(), expression());
+                case STRING:
+                    return new Stmt.String(token(), expression());
+                case MULTI_VAR: {
+                    Stmt type = statement();
+                    if (type != null && !(type instanceof Stmt.String)) {
+                        throw new IOException("Bad MULTI_VAR type");
+                    }
+                    List<Token> names = tokens();
+                    int count = size();
+                    List<Expr> initializers = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        initializers.add(expression());
+                    }
+                    return new Stmt.MultiVar((Stmt.String) type, names, initializers);
+                }
+                case WHILE: {
+                    Expr condition = expression();
+                    return new Stmt.While(condition, statement());
+                }
+                default:
+                    throw new IOException("Bad statement tag " + tag);
+            }
+        }
+
+        private Expr expression() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case ASSIGN: {
+                    Token name = token();
+                    return new Expr.Assign(name, expression());
+                }
+                case BINARY: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expression());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expression());
+                case LITERAL:
+                    return new Expr.Literal(value());
+                case LOGICAL: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expression());
+                }
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expression());
+                }
+                case VARIABLE:
+                    return new Expr.Variable(token());
+                default:
+                    throw new IOException("Bad expression tag " + tag);
+            }
+        }
+
+        private List<Token> tokens() throws IOException {
+            int count = size();
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+
+        private Token token() throws IOException {
+            int flags = in.readUnsignedByte();
+            int type = flags & TYPE_MASK;
+            if (type >= TYPES.length) throw new IOException("Bad token type " + type);
+            String lexeme = (flags & FIXED_LEXEME) != 0 ? TokenStream.fixedLexeme(TYPES[type]) : string();
+            Object literal = value();
+            int delta = varint();
+            line += (delta >>> 1) ^ -(delta & 1);
+            int symbol = -1;
+            if ((flags & HAS_SYMBOL) != 0) {
+                if (lexeme == null) throw new IOException("Identifier without a name");
+                symbol = symbols.intern(lexeme);
+            }
+            return new Token(TYPES[type], lexeme, literal, line, symbol);
+        }
+
+        private Object value() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case VALUE_TRUE:
+                    return true;
+                case VALUE_FALSE:
+                    return false;
+                case VALUE_INT:
+                    return in.readInt();
+                case VALUE_FLOAT:
+                    return in.readDouble();
+                case VALUE_CHAR:
+                    return in.readChar();
+                case VALUE_STRING:
+                    return string();
+                case VALUE_TOKEN:
+                    return token();
+                default:
+                    throw new IOException("Bad value tag " + tag);
+            }
+        }
+
+        private String string() throws IOException {
+            int index = varint();
+            if (index == 0) return null;
+            if (index >= 2) {
+                if (index < 0 || index - 2 >= strings.size()) throw new IOException("Bad string " + index);
+                return strings.get(index - 2);
+            }
+            byte[] bytes = new byte[size()];
+            in.readFully(bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(text);
+            return text;
+        }
+
+        // A number of things that follow, each at least one byte, so a
+        // damaged count fails here instead of in an allocation.
+        private int size() throws IOException {
+            int size = varint();
+            if (size < 0 || size > in.available()) throw new IOException("Bad count " + size);
+            return size;
+        }
+
+        private int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Bad count");
+        }
+    }
+}
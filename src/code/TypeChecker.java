@@ -0,0 +1,250 @@
+package code;
+
+import java.util.List;
+
+// Runs after the Resolver. Works out what type each expression has from the
+// declarations and literals it is built from, reports a declaration or
+// assignment whose value can never be of the variable's type, and marks the
+// ones whose value is always of the right type as typeSafe so the engines
+// can store it without checking it again.
+class TypeChecker implements Expr.Visitor<TypeChecker.Type>, Stmt.Visitor<Void> {
+
+    // What is known about a value before it runs: the data type it has
+    // unless it is nil, and whether it can be nil. An expression whose type
+    // is only known at runtime has no Type at all.
+    static final class Type {
+        final String name;
+        final boolean nullable;
+
+        Type(String name, boolean nullable) {
+            this.name = name;
+            this.nullable = nullable;
+        }
+    }
+
+    private static final Type INT = new Type("INT", false);
+    private static final Type FLOAT = new Type("FLOAT", false);
+    private static final Type BOOL = new Type("BOOL", false);
+    private static final Type CHAR = new Type("CHAR", false);
+    private static final Type STRING = new Type("STRING", false);
+    private static final Type NIL = new Type("NIL", true);
+
+    private final Diagnostics diagnostics;
+
+    TypeChecker(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    void check(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            // the parser leaves a null behind for a stray END CODE
+            if (statement != null) statement.accept(this);
+        }
+    }
+
+    private Type typeOf(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private static Type typeOf(Local local) {
+        return new Type(local.dataType, !local.initialized);
+    }
+
+    // Reports a value that can never be stored in a variable of the data
+    // type, and returns whether it can be stored without a runtime check.
+    private boolean checkStore(Token name, Type value, String dataType, String message) {
+        if (value == null) return false;
+
+        if (!value.name.equals(dataType)) {
+            diagnostics.error(name, message + dataType);
+            return false;
+        }
+        return !value.nullable;
+    }
+
+    private boolean declaration(Token name, Expr initializer, Local local, String dataType) {
+        if (initializer == null) return false;
+
+        Type value = typeOf(initializer);
+        return checkStore(name, value, dataType, "Instance must be of type ") && local != null;
+    }
+
+    // Whether the value is always of the data type, never nil.
+    private static boolean is(Type type, String name) {
+        return type != null && !type.nullable && type.name.equals(name);
+    }
+
+    private static boolean isNumber(Type type) {
+        return is(type, "INT") || is(type, "FLOAT");
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        check(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        typeOf(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        typeOf(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitDisplayStmt(Stmt.Display stmt) {
+        typeOf(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitScanStmt(Stmt.Scan stmt) {
+        // input is checked against the declared types as it is read
+        return null;
+    }
+
+    @Override
+    public Void visitIntStmt(Stmt.Int stmt) {
+        stmt.typeSafe = declaration(stmt.name, stmt.initializer, stmt.local, "INT");
+        return null;
+    }
+
+    @Override
+    public Void visitCharStmt(Stmt.Char stmt) {
+        stmt.typeSafe = declaration(stmt.name, stmt.initializer, stmt.local, "CHAR");
+        return null;
+    }
+
+    @Override
+    public Void visitFloatStmt(Stmt.Float stmt) {
+        stmt.typeSafe = declaration(stmt.name, stmt.initializer, stmt.local, "FLOAT");
+        return null;
+    }
+
+    @Override
+    public Void visitBoolStmt(Stmt.Bool stmt) {
+        stmt.typeSafe = declaration(stmt.name, stmt.initializer, stmt.local, "BOOL");
+        return null;
+    }
+
+    @Override
+    public Void visitStringStmt(Stmt.String stmt) {
+        stmt.typeSafe = declaration(stmt.name, stmt.initializer, stmt.local, "STRING");
+        return null;
+    }
+
+    @Override
+    public Void visitMultiVarStmt(Stmt.MultiVar stmt) {
+        for (int i = 0; i < stmt.names.size(); i++) {
+            Expr initializer = stmt.initializers.get(i);
+            Type value = initializer == null ? NIL : typeOf(initializer);
+            if (stmt.locals[i] != null) {
+                checkStore(stmt.names.get(i), value, stmt.locals[i].dataType, "Input must be of type ");
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        typeOf(stmt.condition);
+        stmt.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        Type value = typeOf(expr.value);
+        if (expr.depth < 0) return null;
+
+        expr.typeSafe = checkStore(expr.name, value, expr.local.dataType, "Input must be of type ");
+        // once stored the value has passed the check
+        return new Type(expr.local.dataType, false);
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = typeOf(expr.left);
+        Type right = typeOf(expr.right);
+
+        switch (expr.operator.type) {
+            case PLUS:
+            case MINUS:
+            case STAR:
+            case SLASH:
+            case MODULO:
+                if (is(left, "INT") && is(right, "INT")) return INT;
+                if (isNumber(left) && isNumber(right)) return FLOAT;
+                return null;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case EQUAL_EQUAL:
+            case NOT_EQUAL:
+                return BOOL;
+            case CONCAT:
+            case NEXT_LINE:
+                return STRING;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return typeOf(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) return NIL;
+        if (value instanceof Integer) return INT;
+        if (value instanceof Double) return FLOAT;
+        if (value instanceof Boolean) return BOOL;
+        if (value instanceof Character) return CHAR;
+        if (value instanceof String) return STRING;
+        return null;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        Type left = typeOf(expr.left);
+        Type right = typeOf(expr.right);
+
+        // the result is one of the operands
+        if (left == null || right == null || !left.name.equals(right.name)) return null;
+        return new Type(left.name, left.nullable || right.nullable);
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        Type right = typeOf(expr.right);
+
+        switch (expr.operator.type) {
+            case NOT:
+                return BOOL;
+            case MINUS:
+            case PLUS:
+                return isNumber(right) ? right : null;
+            case NEXT_LINE:
+                return STRING;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0) return null;
+        return typeOf(expr.local);
+    }
+}
@@ -0,0 +1,482 @@
+package code;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Stack-based virtual machine that runs a Chunk produced by the
+// BytecodeCompiler. Integer arithmetic and comparisons are handled inline;
+// anything else falls back to Values so results match the Interpreter.
+class VM {
+    private final Environment globals = new Environment();
+    private final Output output;
+    private final Input input;
+    private final Diagnostics diagnostics;
+    private Object[] stack = new Object[64];
+    private int stackTop = 0;
+    // how often each superinstruction ran, by opcode, counted only with
+    // --stats so the dispatch loop does not pay for it otherwise
+    private final boolean stats;
+    private final long[] counts = new long[256];
+
+    VM(Output output, Input input, Diagnostics diagnostics, boolean stats) {
+        this.output = output;
+        this.input = input;
+        this.diagnostics = diagnostics;
+        this.stats = stats;
+    }
+
+    void interpret(Chunk chunk) {
+        try {
+            run(chunk);
+        } catch (RuntimeError error) {
+            stackTop = 0;
+            output.flush();
+            diagnostics.runtimeError(error);
+        } finally {
+            output.flush();
+        }
+    }
+
+    // DISPLAY output seldom ends in a newline, so the counts start on a
+    // line of their own after a header.
+    void printStats() {
+        System.err.println();
+        System.err.println("--- superinstruction counts ---");
+        for (int i = 0; i < OpCode.FUSED.length; i++) {
+            System.err.println(OpCode.FUSED_NAMES[i] + " " + counts[OpCode.FUSED[i]]);
+        }
+    }
+
+    private void push(Object value) {
+        if (stackTop == stack.length) {
+            stack = Arrays.copyOf(stack, stackTop * 2);
+        }
+        stack[stackTop++] = value;
+    }
+
+    private Object pop() {
+        return stack[--stackTop];
+    }
+
+    private Object peek() {
+        return stack[stackTop - 1];
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private static int readInt(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 24) | ((code[ip + 1] & 0xff) << 16)
+                | ((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff);
+    }
+
+    private static boolean isType(Object value, int type) {
+        switch (type) {
+            case OpCode.TYPE_INT:
+                return value instanceof Integer;
+            case OpCode.TYPE_CHAR:
+                return value instanceof Character;
+            case OpCode.TYPE_BOOL:
+                return value instanceof Boolean;
+            case OpCode.TYPE_FLOAT:
+                return value instanceof Double;
+            default:
+                return value instanceof String;
+        }
+    }
+
+    private void run(Chunk chunk) {
+        final byte[] code = chunk.code;
+        final Token[] tokens = chunk.tokens;
+        final Object[] constants = chunk.constants;
+        final Object[] locals = new Object[chunk.localCount];
+        int ip = 0;
+
+        for (;;) {
+            int start = ip;
+            byte instruction = code[ip++];
+
+            switch (instruction) {
+                case OpCode.CONSTANT:
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    push(null);
+                    break;
+                case OpCode.TRUE:
+                    push(true);
+                    break;
+                case OpCode.FALSE:
+                    push(false);
+                    break;
+                case OpCode.POP:
+                    stackTop--;
+                    break;
+
+                case OpCode.GET_LOCAL:
+                    push(locals[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.SET_LOCAL: {
+                    int slot = readShort(code, ip);
+                    int type = code[ip + 2];
+                    ip += 3;
+                    Object value = peek();
+                    if (!isType(value, type)) {
+                        throw new RuntimeError(tokens[start],
+                                "Input must be of type " + OpCode.TYPE_NAMES[type]);
+                    }
+                    locals[slot] = value;
+                    break;
+                }
+                case OpCode.DEFINE_LOCAL:
+                    locals[readShort(code, ip)] = pop();
+                    ip += 2;
+                    break;
+                case OpCode.REDEFINE: {
+                    Token name = tokens[start];
+                    throw new RuntimeError(name, "Runtime Error: Variable " + name.lexeme + " is already defined");
+                }
+                case OpCode.GET_GLOBAL:
+                    push(globals.get(tokens[start]));
+                    ip += 2;
+                    break;
+                case OpCode.SET_GLOBAL:
+                    globals.assign(tokens[start], peek());
+                    ip += 2;
+                    break;
+                case OpCode.DEFINE_GLOBAL: {
+                    int type = code[ip + 2];
+                    ip += 3;
+                    globals.define(tokens[start], pop(), OpCode.TYPE_NAMES[type]);
+                    break;
+                }
+                case OpCode.CHECK_TYPE: {
+                    int type = code[ip++];
+                    if (!isType(peek(), type)) {
+                        throw new RuntimeError(tokens[start],
+                                "Instance must be of type " + OpCode.TYPE_NAMES[type]);
+                    }
+                    break;
+                }
+
+                case OpCode.ADD: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer) {
+                        push((Integer) a + (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer) {
+                        push((Integer) a - (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer) {
+                        push((Integer) a * (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer && (Integer) b != 0) {
+                        push((Integer) a / (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.MODULO: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer && (Integer) b != 0) {
+                        push((Integer) a % (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer) {
+                        push((Integer) a > (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer) {
+                        push((Integer) a >= (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer) {
+                        push((Integer) a < (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object b = pop();
+                    Object a = pop();
+                    if (a instanceof Integer && b instanceof Integer) {
+                        push((Integer) a <= (Integer) b);
+                    } else {
+                        push(Values.binary(tokens[start], a, b));
+                    }
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object b = pop();
+                    Object a = pop();
+                    push(Values.isEqual(a, b));
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object b = pop();
+                    Object a = pop();
+                    push(!Values.isEqual(a, b));
+                    break;
+                }
+                case OpCode.CONCAT: {
+                    Object b = pop();
+                    Object a = pop();
+                    push(Values.stringify(a) + Values.stringify(b));
+                    break;
+                }
+                case OpCode.NEXT_LINE: {
+                    Object b = pop();
+                    Object a = pop();
+                    push(Values.stringify(a) + "\n" + Values.stringify(b));
+                    break;
+                }
+
+                case OpCode.NEGATE: {
+                    Object value = pop();
+                    if (value instanceof Integer) {
+                        push(-(Integer) value);
+                    } else {
+                        push(Values.unary(tokens[start], value));
+                    }
+                    break;
+                }
+                case OpCode.NOT:
+                    push(!Values.isTruthy(pop()));
+                    break;
+                case OpCode.UNARY:
+                    push(Values.unary(tokens[start], pop()));
+                    break;
+
+                case OpCode.DISPLAY:
+                    output.print(Values.stringify(pop()));
+                    break;
+                case OpCode.SCAN:
+                    ip = scan(code, ip, constants, locals);
+                    break;
+
+                case OpCode.JUMP:
+                    ip += 4 + readInt(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (Values.isTruthy(pop())) {
+                        ip += 4;
+                    } else {
+                        ip += 4 + readInt(code, ip);
+                    }
+                    break;
+                case OpCode.JUMP_IF_FALSE_OR_POP:
+                    if (Values.isTruthy(peek())) {
+                        stackTop--;
+                        ip += 4;
+                    } else {
+                        ip += 4 + readInt(code, ip);
+                    }
+                    break;
+                case OpCode.JUMP_IF_TRUE_OR_POP:
+                    if (Values.isTruthy(peek())) {
+                        ip += 4 + readInt(code, ip);
+                    } else {
+                        stackTop--;
+                        ip += 4;
+                    }
+                    break;
+                case OpCode.LOOP:
+                    ip = ip + 4 - readInt(code, ip);
+                    break;
+                case OpCode.RETURN:
+                    return;
+
+                case OpCode.INC_LOCAL: {
+                    if (stats) counts[OpCode.INC_LOCAL]++;
+                    int slot = readShort(code, ip);
+                    Object constant = constants[readShort(code, ip + 2)];
+                    int type = code[ip + 4];
+                    Token operator = tokens[start + 3];
+                    ip += 5;
+
+                    Object current = locals[slot];
+                    if (current instanceof Integer && type == OpCode.TYPE_INT) {
+                        code[start] = OpCode.INC_LOCAL_INT;
+                    }
+                    Object value = Values.binary(operator, current, constant);
+                    if (!isType(value, type)) {
+                        throw new RuntimeError(tokens[start],
+                                "Input must be of type " + OpCode.TYPE_NAMES[type]);
+                    }
+                    locals[slot] = value;
+                    break;
+                }
+                case OpCode.INC_LOCAL_INT: {
+                    int slot = readShort(code, ip);
+                    Object current = locals[slot];
+                    if (!(current instanceof Integer)) {
+                        // not an INT any more, run it generically again
+                        code[start] = OpCode.INC_LOCAL;
+                        ip = start;
+                        break;
+                    }
+                    if (stats) counts[OpCode.INC_LOCAL_INT]++;
+                    int constant = (Integer) constants[readShort(code, ip + 2)];
+                    ip += 5;
+                    locals[slot] = tokens[start + 3].type == TokenType.PLUS
+                            ? (Integer) current + constant
+                            : (Integer) current - constant;
+                    break;
+                }
+                case OpCode.COMPARE_LOCAL_JUMP: {
+                    if (stats) counts[OpCode.COMPARE_LOCAL_JUMP]++;
+                    Object a = locals[readShort(code, ip)];
+                    Object b = constants[readShort(code, ip + 2)];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        code[start] = OpCode.COMPARE_LOCAL_INT_JUMP;
+                    }
+                    ip += 5;
+                    if (Values.isTruthy(Values.binary(tokens[start], a, b))) {
+                        ip += 4;
+                    } else {
+                        ip += 4 + readInt(code, ip);
+                    }
+                    break;
+                }
+                case OpCode.COMPARE_LOCAL_INT_JUMP: {
+                    Object a = locals[readShort(code, ip)];
+                    if (!(a instanceof Integer)) {
+                        code[start] = OpCode.COMPARE_LOCAL_JUMP;
+                        ip = start;
+                        break;
+                    }
+                    if (stats) counts[OpCode.COMPARE_LOCAL_INT_JUMP]++;
+                    int l = (Integer) a;
+                    int r = (Integer) constants[readShort(code, ip + 2)];
+                    boolean result;
+                    switch (code[ip + 4]) {
+                        case OpCode.GREATER: result = l > r; break;
+                        case OpCode.GREATER_EQUAL: result = l >= r; break;
+                        case OpCode.LESS: result = l < r; break;
+                        case OpCode.LESS_EQUAL: result = l <= r; break;
+                        case OpCode.EQUAL: result = l == r; break;
+                        default: result = l != r; break;
+                    }
+                    ip += 5;
+                    if (result) {
+                        ip += 4;
+                    } else {
+                        ip += 4 + readInt(code, ip);
+                    }
+                    break;
+                }
+                case OpCode.CONCAT_DISPLAY: {
+                    if (stats) counts[OpCode.CONCAT_DISPLAY]++;
+                    int count = code[ip] & 0xff;
+                    output.print(concatenate(code, ip, count));
+                    ip += count;
+                    break;
+                }
+                case OpCode.CONCAT_N: {
+                    if (stats) counts[OpCode.CONCAT_N]++;
+                    int count = code[ip] & 0xff;
+                    push(concatenate(code, ip, count));
+                    ip += count;
+                    break;
+                }
+
+                default:
+                    throw new IllegalStateException("Unknown opcode " + instruction);
+            }
+        }
+    }
+
+    // Pops the count operands of a CONCAT_DISPLAY or CONCAT_N and joins
+    // them, with the separators read from the code after the count.
+    private String concatenate(byte[] code, int ip, int count) {
+        int first = stackTop - count;
+        String[] parts = new String[count];
+        int length = count - 1;
+        for (int i = 0; i < count; i++) {
+            parts[i] = Values.stringify(stack[first + i]);
+            length += parts[i].length();
+        }
+        stackTop = first;
+
+        StringBuilder text = new StringBuilder(length);
+        text.append(parts[0]);
+        for (int i = 1; i < count; i++) {
+            if (code[ip + i] == OpCode.NEXT_LINE) text.append('\n');
+            text.append(parts[i]);
+        }
+        return text.toString();
+    }
+
+    private int scan(byte[] code, int ip, Object[] constants, Object[] locals) {
+        @SuppressWarnings("unchecked")
+        List<Token> variables = (List<Token>) constants[readShort(code, ip)];
+        ip += 2;
+
+        String[] dataTypes = new String[variables.size()];
+        for (int i = 0; i < dataTypes.length; i++) {
+            int offset = ip + i * 4;
+            dataTypes[i] = code[offset] == OpCode.SCAN_LOCAL
+                    ? OpCode.TYPE_NAMES[code[offset + 3]]
+                    : globals.getDataType(variables.get(i));
+        }
+
+        output.flush();
+        Object[] values = Values.scanLine(input, variables, dataTypes);
+
+        for (int i = 0; i < values.length; i++) {
+            if (code[ip] == OpCode.SCAN_LOCAL) {
+                locals[readShort(code, ip + 1)] = values[i];
+            } else {
+                globals.assign(variables.get(i), values[i]);
+            }
+            ip += 4;
+        }
+        return ip;
+    }
+}
@@ -0,0 +1,370 @@
+package code;
+
+import java.util.List;
+
+// Runtime semantics of CODE values shared by every execution engine, so the
+// tree-walking Interpreter and the bytecode VM agree on truthiness, equality,
+// formatting, operators and SCAN input.
+final class Values {
+
+    private Values() {}
+
+    static void checkNumberOperand(Token operator, Object operand) {
+        if (operand instanceof Integer || operand instanceof Double) return;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Boolean) {
+            return object.toString().toUpperCase();
+        }
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }        
+
+        return object.toString();
+    }
+
+    // Reads one line of SCAN input and converts its comma-separated fields,
+    // each parsed directly as the declared type of the variable it goes to.
+    static Object[] scanLine(Input source, List<Token> variables, String[] dataTypes) {
+        // read input from the user
+        String input = source.readLine();
+        if (input == null) {
+            throw new RuntimeError(variables.get(0), "Expected " + variables.size() + " values but input has ended.");
+        }
+
+        // counted the way input.split(",") would, which drops trailing
+        // empty fields
+        int length = input.length();
+        if (input.indexOf(',') >= 0) {
+            while (length > 0 && input.charAt(length - 1) == ',') length--;
+        }
+        int count = length == 0 && input.length() > 0 ? 0 : 1;
+        for (int i = 0; i < length; i++) {
+            if (input.charAt(i) == ',') count++;
+        }
+
+        // checks if the number of input values matches the number of variables
+        if (count != variables.size()) {
+            throw new RuntimeError(variables.get(0), "Expected " + variables.size() + " values but got " + count + ".");
+        }
+
+        Object[] parsed = new Object[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = input.indexOf(',', start);
+            if (end < 0) end = input.length();
+
+            Object value = parseField(input, start, end, dataTypes[i]);
+            if (value == INVALID) {
+                throw new RuntimeError(variables.get(i), "Input must be of type " + dataTypes[i]);
+            }
+            parsed[i] = value;
+            start = end + 1;
+        }
+        return parsed;
+    }
+
+    // parseField's answer for text that is not a value of the data type
+    private static final Object INVALID = new Object();
+
+    // Parses the trimmed text between start and end as the data type. A
+    // value is of a type when it is what the type-guessing order of INT,
+    // FLOAT, CHAR, BOOL and then STRING would have made of it, so an INT
+    // field "5" is not accepted as FLOAT and "x" is a CHAR, not a STRING.
+    private static Object parseField(String text, int start, int end, String dataType) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+
+        switch (dataType) {
+            case "INT":
+                return parseInt(text, start, end);
+            case "FLOAT":
+                if (parseInt(text, start, end) != INVALID) return INVALID;
+                return parseDouble(text, start, end);
+            case "CHAR":
+                if (end - start != 1 || Character.digit(text.charAt(start), 10) >= 0) return INVALID;
+                return text.charAt(start);
+            case "BOOL":
+                if (matches(text, start, end, "\"TRUE\"")) return true;
+                if (matches(text, start, end, "\"FALSE\"")) return false;
+                return INVALID;
+            case "STRING":
+                if (end - start == 1 || matches(text, start, end, "\"TRUE\"")
+                        || matches(text, start, end, "\"FALSE\"")
+                        || parseInt(text, start, end) != INVALID
+                        || parseDouble(text, start, end) != INVALID) {
+                    return INVALID;
+                }
+                return text.substring(start, end);
+            default:
+                return INVALID;
+        }
+    }
+
+    private static boolean matches(String text, int start, int end, String word) {
+        return end - start == word.length() && text.startsWith(word, start);
+    }
+
+    // Integer.parseInt without the exception: an optional sign, then
+    // decimal digits, within the INT range.
+    private static Object parseInt(String text, int start, int end) {
+        if (start == end) return INVALID;
+
+        boolean negative = false;
+        char first = text.charAt(start);
+        if (first == '-' || first == '+') {
+            if (end - start == 1) return INVALID;
+            negative = first == '-';
+            start++;
+        }
+
+        // accumulated negatively, so Integer.MIN_VALUE fits
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0 || result < limit / 10) return INVALID;
+            result *= 10;
+            if (result < limit + digit) return INVALID;
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    // Double.parseDouble, which only throws for text outside the plain
+    // decimal form, such as a hex float or "NaN", and then only when every
+    // character could belong to one.
+    private static Object parseDouble(String text, int start, int end) {
+        if (start == end) return INVALID;
+
+        if (isDecimal(text, start, end)) {
+            return Double.parseDouble(text.substring(start, end));
+        }
+        for (int i = start; i < end; i++) {
+            if (DOUBLE_CHARACTERS.indexOf(text.charAt(i)) < 0) return INVALID;
+        }
+        try {
+            return Double.parseDouble(text.substring(start, end));
+        } catch (NumberFormatException ignored) {
+            return INVALID;
+        }
+    }
+
+    // every character Double.parseDouble accepts after trimming
+    private static final String DOUBLE_CHARACTERS = "0123456789+-.eEpPxXabcdfABCDFNIinty";
+
+    // [+-] digits [. digits] [e [+-] digits] [fFdD], with a digit before
+    // or after the point
+    private static boolean isDecimal(String text, int start, int end) {
+        int i = start;
+        if (text.charAt(i) == '+' || text.charAt(i) == '-') i++;
+
+        int digits = 0;
+        while (i < end && isDigit(text.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(text.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) return false;
+
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (text.charAt(i) == '+' || text.charAt(i) == '-')) i++;
+            int exponent = i;
+            while (i < end && isDigit(text.charAt(i))) i++;
+            if (i == exponent) return false;
+        }
+        if (i < end && "fFdD".indexOf(text.charAt(i)) >= 0) i++;
+        return i == end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isValidType(Object value, String dataType) {
+        // Check if the value's type matches the expected data type
+        switch (dataType) {
+            case "INT":
+                return value instanceof Integer;
+            case "FLOAT":
+                return value instanceof Double;
+            case "CHAR":
+                return value instanceof Character;
+            case "BOOL":
+                return value instanceof Boolean;
+            case "STRING":
+                return value instanceof String;
+            default:
+                return false;
+        }
+    }
+
+    static Object unary(Token operator, Object right) {
+        switch (operator.type) {
+            case NOT:
+                return !isTruthy(right);
+            case MINUS:
+                return negate(operator, right);
+            case PLUS:
+                checkNumberOperand(operator, right);
+                return right;
+            case NEXT_LINE:
+                return "\n" + stringify(right);
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    static Object negate(Token operator, Object right) {
+        if (right instanceof Integer) return -(Integer) right;
+        checkNumberOperand(operator, right);
+        return -(Double) right;
+    }
+
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
+            case NEXT_LINE:
+                return (stringify(left) + "\n" + stringify(right));
+            case CONCAT:
+                return stringify(left) + stringify(right);
+            case GREATER:
+                return greater(operator, left, right);
+            case GREATER_EQUAL:
+                return greaterEqual(operator, left, right);
+            case LESS:
+                return less(operator, left, right);
+            case LESS_EQUAL:
+                return lessEqual(operator, left, right);
+            case MINUS:
+                return subtract(operator, left, right);
+            case PLUS:
+                return add(operator, left, right);
+            case SLASH:
+                return divide(operator, left, right);
+            case STAR:
+                return multiply(operator, left, right);
+            case MODULO:
+                return modulo(operator, left, right);
+            case NOT_EQUAL:
+                return !isEqual(left, right);
+            case EQUAL_EQUAL:
+                return isEqual(left, right);
+            default:
+                break;
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    // Per-operator halves of binary(), for engines that pick the operator
+    // once at compile time. Both operands INT gives an INT result, any other
+    // mix of INT and FLOAT is done in double.
+
+    static Object add(Token operator, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left + (Integer) right;
+        }
+        return toDouble(operator, left) + toDouble(operator, right);
+    }
+
+    static Object subtract(Token operator, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left - (Integer) right;
+        }
+        return toDouble(operator, left) - toDouble(operator, right);
+    }
+
+    static Object multiply(Token operator, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left * (Integer) right;
+        }
+        return toDouble(operator, left) * toDouble(operator, right);
+    }
+
+    static Object divide(Token operator, Object left, Object right) {
+        if (toDouble(operator, right) == 0) {
+            throw new RuntimeError(operator, "Division by zero.");
+        }
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left / (Integer) right;
+        }
+        return toDouble(operator, left) / toDouble(operator, right);
+    }
+
+    static Object modulo(Token operator, Object left, Object right) {
+        if (toDouble(operator, right) == 0) {
+            throw new RuntimeError(operator, "Division by zero.");
+        }
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left % (Integer) right;
+        }
+        return toDouble(operator, left) % toDouble(operator, right);
+    }
+
+    static boolean greater(Token operator, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left > (Integer) right;
+        }
+        return toDouble(operator, left) > toDouble(operator, right);
+    }
+
+    static boolean greaterEqual(Token operator, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left >= (Integer) right;
+        }
+        return toDouble(operator, left) >= toDouble(operator, right);
+    }
+
+    static boolean less(Token operator, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left < (Integer) right;
+        }
+        return toDouble(operator, left) < toDouble(operator, right);
+    }
+
+    static boolean lessEqual(Token operator, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return (Integer) left <= (Integer) right;
+        }
+        return toDouble(operator, left) <= toDouble(operator, right);
+    }
+
+    // Anything that is not an INT or FLOAT (including an uninitialized
+    // variable) cannot take part in arithmetic.
+    static double toDouble(Token operator, Object operand) {
+        if (operand instanceof Integer) return (Integer) operand;
+        if (operand instanceof Double) return (Double) operand;
+        throw new RuntimeError(operator, "Unexpected null value encountered.");
+    }
+}
@@ -14,28 +14,28 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
+                "Assign   : Token name, Expr value | int depth = -1, Local local, boolean typeSafe",
                 "Binary   : Expr left, Token operator, Expr right",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | int depth = -1, Local local"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements | int slotCount, int[] layout",
                 "Expression : Expr expression",
                 "If         : Expr condition, Stmt thenBranch," +
                         " Stmt elseBranch",
                 "Display      : Expr expression",
-                "Scan      : List <Token> variables",
-                "Int        : Token name, Expr initializer",
-                "Char        : Token name, Expr initializer",
-                "Float        : Token name, Expr initializer",
-                "Bool        : Token name, Expr initializer",
-                "String        : Token name, Expr initializer",
-                "MultiVar        : String type, List<Token> names, List<Expr> initializers",
+                "Scan      : List <Token> variables | int[] depths, Local[] locals",
+                "Int        : Token name, Expr initializer | Local local, boolean redeclaration, boolean typeSafe",
+                "Char        : Token name, Expr initializer | Local local, boolean redeclaration, boolean typeSafe",
+                "Float        : Token name, Expr initializer | Local local, boolean redeclaration, boolean typeSafe",
+                "Bool        : Token name, Expr initializer | Local local, boolean redeclaration, boolean typeSafe",
+                "String        : Token name, Expr initializer | Local local, boolean redeclaration, boolean typeSafe",
+                "MultiVar        : String type, List<Token> names, List<Expr> initializers | int[] depths, Local[] locals",
                 "While      : Expr condition, Stmt body"
         ));
     }
@@ -57,8 +57,10 @@ public class GenerateAst {
         // The AST classes.
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fieldLists = type.split(":")[1].split("\\|");
+            String fields = fieldLists[0].trim();
+            String annotations = fieldLists.length > 1 ? fieldLists[1].trim() : null;
+            defineType(writer, baseName, className, fields, annotations);
         }
 
         // The base accept() method.
@@ -84,7 +86,7 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldList, String annotationList) {
         writer.println("  static class " + className + " extends " +
                 baseName + " {");
 
@@ -114,6 +116,14 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        // Mutable fields filled in by the Resolver after parsing.
+        if (annotationList != null) {
+            writer.println();
+            for (String annotation : annotationList.split(", ")) {
+                writer.println("    " + annotation + ";");
+            }
+        }
+
         writer.println("  }");
     }
 }
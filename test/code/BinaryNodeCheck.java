@@ -0,0 +1,166 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// Check for the self-specializing BinaryNodes of the ClosureCompiler: the
+// same expressions run through the Interpreter and the closure engine while
+// the operand types change between evaluations, so every node goes through
+// its INT, FLOAT, MIXED and GENERIC states and the UnexpectedValue
+// fallbacks in between. Both engines must give the same value of the same
+// type, or the same runtime error, every time, division by zero included.
+// Run it with java code.BinaryNodeCheck; it throws on the first failure.
+final class BinaryNodeCheck {
+    private static final TokenType[] OPERATORS = {
+            TokenType.PLUS, TokenType.MINUS, TokenType.STAR, TokenType.SLASH, TokenType.MODULO,
+            TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL,
+            TokenType.EQUAL_EQUAL, TokenType.NOT_EQUAL
+    };
+
+    // Operands a, b and c for one evaluation, by the state they drive a
+    // node to. Each group has a zero divisor in it.
+    private static final Object[][] INTS = {{7, 2, 3}, {7, 0, 3}, {-9, 4, 4}, {6, 3, 0}};
+    private static final Object[][] FLOATS = {{7.5, 2.0, 3.0}, {1.0, 0.0, 2.0}, {-4.5, 1.5, 1.5}};
+    private static final Object[][] MIXED = {{7, 2.5, 3}, {7.0, 0, 1.0}, {2.0, 2, 2}};
+    private static final Object[][] OTHERS = {{"x", 2, 3}, {'c', 1, 2.0}, {true, false, 1}, {null, 1, 2}};
+
+    // The orders the groups come in, each run on freshly compiled nodes.
+    private static final Object[][][][] ORDERS = {
+            {INTS, FLOATS, OTHERS, INTS},
+            {INTS, MIXED, INTS},
+            {FLOATS, INTS, FLOATS},
+            {FLOATS, MIXED, OTHERS},
+            {MIXED, INTS, FLOATS, MIXED},
+            {OTHERS, INTS, FLOATS},
+    };
+
+    private static final int A = 0;
+    private static final int B = 1;
+    private static final int C = 2;
+    private static final int RESULT = 3;
+
+    public static void main(String[] args) {
+        List<Expr> expressions = new ArrayList<>();
+        for (TokenType operator : OPERATORS) {
+            expressions.add(binary(variable(A), operator, variable(B)));
+            expressions.add(binary(variable(A), operator, new Expr.Literal(2)));
+            // an outer node that reads an inner one unboxed, either side
+            expressions.add(binary(new Expr.Grouping(binary(variable(A), TokenType.SLASH, variable(B))),
+                    operator, variable(C)));
+            expressions.add(binary(variable(C), operator,
+                    new Expr.Grouping(binary(variable(A), TokenType.MINUS, variable(B)))));
+        }
+        expressions.add(binary(new Expr.Grouping(binary(variable(A), TokenType.STAR, variable(B))),
+                TokenType.PLUS, new Expr.Grouping(binary(variable(B), TokenType.MODULO, variable(C)))));
+
+        int evaluations = 0;
+        for (Expr expression : expressions) {
+            for (Object[][][] order : ORDERS) {
+                evaluations += run(expression, order);
+            }
+        }
+
+        System.out.println("BinaryNode checks passed (" + evaluations + " evaluations)");
+    }
+
+    // One Interpreter and one compiled closure for the expression, both fed
+    // every operand in the order given.
+    private static int run(Expr expression, Object[][][] order) {
+        List<Stmt> statements = Arrays.asList(new Stmt.Expression(assignResult(expression)));
+        Interpreter interpreter = new Interpreter(Output.standard(), Input.standard(), new Diagnostics());
+        ClosureCompiler.StmtNode compiled =
+                new ClosureCompiler(new Environment(), Output.standard(), Input.standard()).compile(statements);
+
+        int evaluations = 0;
+        for (Object[][] group : order) {
+            for (Object[] operands : group) {
+                Environment interpreterFrame = frame(operands);
+                Object expected = outcome(() -> interpreter.executeBlock(statements, interpreterFrame),
+                        interpreterFrame);
+
+                Environment closureFrame = frame(operands);
+                Object actual = outcome(() -> compiled.exec(closureFrame), closureFrame);
+
+                if (!same(expected, actual)) {
+                    throw new AssertionError(text(expression) + " with "
+                            + Arrays.toString(operands) + ": Interpreter gave " + describe(expected)
+                            + ", closures gave " + describe(actual));
+                }
+                evaluations++;
+            }
+        }
+        return evaluations;
+    }
+
+    // The value left in the result slot, or the error that was thrown.
+    private static Object outcome(Runnable evaluation, Environment frame) {
+        try {
+            evaluation.run();
+            return frame.objects[RESULT];
+        } catch (RuntimeError error) {
+            return error;
+        }
+    }
+
+    private static boolean same(Object expected, Object actual) {
+        if (expected instanceof RuntimeError || actual instanceof RuntimeError) {
+            if (!(expected instanceof RuntimeError && actual instanceof RuntimeError)) return false;
+            RuntimeError left = (RuntimeError) expected;
+            RuntimeError right = (RuntimeError) actual;
+            return left.getMessage().equals(right.getMessage()) && left.token == right.token;
+        }
+        return Objects.equals(expected, actual)
+                && (expected == null || expected.getClass() == actual.getClass());
+    }
+
+    private static String text(Expr expr) {
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).name.lexeme;
+        if (expr instanceof Expr.Literal) return String.valueOf(((Expr.Literal) expr).value);
+        if (expr instanceof Expr.Grouping) return "(" + text(((Expr.Grouping) expr).expression) + ")";
+        Expr.Binary binary = (Expr.Binary) expr;
+        return text(binary.left) + " " + binary.operator.lexeme + " " + text(binary.right);
+    }
+
+    private static String describe(Object outcome) {
+        if (outcome instanceof RuntimeError) return "error '" + ((RuntimeError) outcome).getMessage() + "'";
+        return outcome == null ? "nil" : outcome + " (" + outcome.getClass().getSimpleName() + ")";
+    }
+
+    // A frame with a, b, c and the result all kept boxed, so any value can
+    // be stored in them between evaluations.
+    private static Environment frame(Object[] operands) {
+        Environment frame = new Environment().enter(new int[] {0, 0, 0, 0, RESULT + 1});
+        System.arraycopy(operands, 0, frame.objects, 0, operands.length);
+        frame.objects[RESULT] = null;
+        return frame;
+    }
+
+    private static Expr.Assign assignResult(Expr value) {
+        Expr.Assign assign = new Expr.Assign(name(RESULT), value);
+        assign.depth = 0;
+        assign.local = local(RESULT);
+        assign.typeSafe = true;
+        return assign;
+    }
+
+    private static Expr.Variable variable(int index) {
+        Expr.Variable variable = new Expr.Variable(name(index));
+        variable.depth = 0;
+        variable.local = local(index);
+        return variable;
+    }
+
+    private static Local local(int index) {
+        return new Local("STRING", false, Local.OBJECT, index, index);
+    }
+
+    private static Token name(int index) {
+        return new Token(TokenType.IDENTIFIER, "abcr".substring(index, index + 1), null, 1);
+    }
+
+    private static Expr binary(Expr left, TokenType operator, Expr right) {
+        return new Expr.Binary(left, new Token(operator, operator.name(), null, 1), right);
+    }
+}
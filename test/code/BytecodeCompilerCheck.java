@@ -0,0 +1,35 @@
+package code;
+
+import java.util.List;
+
+// Regression check for the BytecodeCompiler's constant pool: a program
+// with more constants than a two-byte index holds must get a compile
+// error at a line, never an exception. Run it with
+// java code.BytecodeCompilerCheck; it throws on the first failure.
+final class BytecodeCompilerCheck {
+    private static final int CONSTANTS = 70000;
+
+    public static void main(String[] args) {
+        StringBuilder source = new StringBuilder("BEGIN CODE\nINT x\n");
+        for (int i = 0; i < CONSTANTS; i++) {
+            source.append("x = ").append(i).append('\n');
+        }
+        source.append("END CODE\n");
+
+        Diagnostics diagnostics = new Diagnostics();
+        Compilation compilation = Compilation.of(SourceReader.of(source.toString()), new SymbolTable(), diagnostics);
+        if (!compilation.succeeded()) {
+            throw new AssertionError("Script did not compile: " + diagnostics.messages());
+        }
+
+        new BytecodeCompiler(diagnostics).compile(compilation.statements);
+        List<String> messages = diagnostics.messages();
+        if (!diagnostics.hadError || messages.isEmpty()
+                || !messages.get(0).matches("\\[line \\d+\\] Error.*: Too many variables or constants in one program\\.")) {
+            throw new AssertionError("Constant pool overflow was not reported: "
+                    + messages.subList(0, Math.min(1, messages.size())));
+        }
+
+        System.out.println("BytecodeCompiler checks passed");
+    }
+}
@@ -0,0 +1,95 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Check for the CompilationService: scripts compiled together on several
+// threads, some of them with syntax errors, must each get only their own
+// errors, in source order, and a SymbolTable of their own. Run it with
+// java code.CompilationServiceCheck; it throws on the first failure.
+final class CompilationServiceCheck {
+    private static final int SCRIPTS = 60;
+    private static final int ROUNDS = 20;
+    private static final Pattern ERROR =
+            Pattern.compile("\\[line (\\d+)\\] Error at '(\\d+)': Expect variable name\\.");
+
+    public static void main(String[] args) throws InterruptedException {
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < SCRIPTS; i++) {
+            sources.add(script(i));
+        }
+
+        try (CompilationService service = new CompilationService(4)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                List<Compilation> compilations = service.compileAll(sources);
+                if (compilations.size() != SCRIPTS) {
+                    throw new AssertionError("Expected " + SCRIPTS + " compilations, got " + compilations.size());
+                }
+                for (int i = 0; i < SCRIPTS; i++) {
+                    check(i, compilations.get(i));
+                }
+            }
+        }
+
+        System.out.println("CompilationService checks passed");
+    }
+
+    // Every third script has errors; each error is a declaration with a
+    // number for a name, which shows up in its message, and the numbers
+    // are unique to the script and rise through it.
+    private static String script(int i) {
+        StringBuilder source = new StringBuilder("BEGIN CODE\n");
+        source.append("INT v").append(i).append(" = ").append(i).append('\n');
+        for (int k = 0; k < errors(i); k++) {
+            source.append("INT ").append(name(i, k)).append('\n');
+            source.append("v").append(i).append(" = v").append(i).append(" + ").append(k).append('\n');
+        }
+        source.append("DISPLAY: v").append(i).append('\n');
+        source.append("END CODE\n");
+        return source.toString();
+    }
+
+    private static int errors(int i) {
+        return i % 3 == 0 ? 1 + i % 4 : 0;
+    }
+
+    private static int name(int i, int k) {
+        return 1000 * (i + 1) + k;
+    }
+
+    private static void check(int i, Compilation compilation) {
+        List<String> messages = compilation.diagnostics.messages();
+        if (messages.size() != errors(i)) {
+            throw new AssertionError("Script " + i + " expected " + errors(i) + " errors, got " + messages);
+        }
+        if (compilation.succeeded() != (errors(i) == 0)) {
+            throw new AssertionError("Script " + i + " succeeded() is " + compilation.succeeded());
+        }
+
+        int line = 0;
+        for (int k = 0; k < messages.size(); k++) {
+            Matcher matcher = ERROR.matcher(messages.get(k));
+            if (!matcher.matches() || Integer.parseInt(matcher.group(2)) != name(i, k)) {
+                throw new AssertionError("Script " + i + " got someone else's error: " + messages);
+            }
+            int next = Integer.parseInt(matcher.group(1));
+            if (next <= line) {
+                throw new AssertionError("Script " + i + " errors out of source order: " + messages);
+            }
+            line = next;
+        }
+
+        if (compilation.succeeded()) {
+            // v<i> is the first name in the script, so it is number 0 in a
+            // table nobody else has added to
+            Stmt.Block block = (Stmt.Block) compilation.statements.get(0);
+            Token name = ((Stmt.Int) block.statements.get(0)).name;
+            if (!name.lexeme.equals("v" + i) || name.symbol != 0) {
+                throw new AssertionError("Script " + i + " shares a SymbolTable: "
+                        + name.lexeme + " is number " + name.symbol);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package code;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Regression check for damaged ScriptCache entries: each one must be
+// compiled around and replaced, never crash the run. Build it against the
+// classes from src and run it with java code.ScriptCacheCheck; it throws
+// on the first failure.
+final class ScriptCacheCheck {
+    private static final String SCRIPT = "BEGIN CODE\nINT x = 1, y = 2\nDISPLAY: x + y\nEND CODE\n";
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("cache-check");
+        try {
+            Path script = directory.resolve("script.code");
+            Files.writeString(script, SCRIPT);
+            ScriptCache cache = new ScriptCache(directory.resolve("cache"));
+
+            compile(cache, script);
+            Path entry = entry(directory.resolve("cache"));
+            byte[] good = Files.readAllBytes(entry);
+            compile(cache, script);
+
+            // cut off in the middle of the tree
+            check(cache, script, entry, good, Arrays.copyOf(good, good.length / 2));
+
+            // every byte flipped in turn
+            for (int i = 0; i < good.length; i++) {
+                byte[] flipped = good.clone();
+                flipped[i] ^= (byte) 0xa5;
+                check(cache, script, entry, good, flipped);
+            }
+
+            // The checksum turns the damage above away before TreeCodec sees
+            // it, so bad counts go to the tree after the displays flag directly.
+            byte[] tree = Arrays.copyOfRange(good, ScriptCache.HEADER_SIZE + 1, good.length);
+            decodeFails(tree, new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f});
+            decodeFails(tree, new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f});
+
+            System.out.println("ScriptCache checks passed");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // The damaged entry still runs the script, and a good entry is back
+    // in its place afterwards.
+    private static void check(ScriptCache cache, Path script, Path entry, byte[] good, byte[] damaged)
+            throws IOException {
+        Files.write(entry, damaged);
+        compile(cache, script);
+        if (!Arrays.equals(Files.readAllBytes(entry), good)) {
+            throw new AssertionError("Damaged cache entry was not replaced");
+        }
+    }
+
+    // The tree with its top-level statement count replaced by the bytes
+    // is rejected with an IOException.
+    private static void decodeFails(byte[] tree, byte[] count) {
+        byte[] damaged = new byte[count.length + tree.length - 1];
+        System.arraycopy(count, 0, damaged, 0, count.length);
+        System.arraycopy(tree, 1, damaged, count.length, tree.length - 1);
+        try {
+            TreeCodec.read(new DataInputStream(new ByteArrayInputStream(damaged)), new SymbolTable());
+        } catch (IOException expected) {
+            return;
+        }
+        throw new AssertionError("Damaged count was read: " + Arrays.toString(count));
+    }
+
+    private static void compile(ScriptCache cache, Path script) throws IOException {
+        Diagnostics diagnostics = new Diagnostics();
+        Compilation compilation = cache.compile(script, StandardCharsets.UTF_8, new SymbolTable(), diagnostics);
+        if (!compilation.succeeded() || compilation.statements == null) {
+            throw new AssertionError("Script did not compile: " + diagnostics.messages());
+        }
+    }
+
+    private static Path entry(Path cache) throws IOException {
+        try (Stream<Path> files = Files.list(cache)) {
+            return files.filter(file -> file.toString().endsWith(".ast")).findFirst()
+                    .orElseThrow(() -> new AssertionError("No cache entry was written"));
+        }
+    }
+}